@@ -0,0 +1,91 @@
+package aa.race.arrival;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.Random;
+
+/*
+ * Arrival process
+ * decides when the events of an Event Generator happen. Each call gives the time of the next event, so the schedule is produced
+ * as it is needed (no array of millions of intervals up front) & with nanosecond resolution.
+ * Lets an experiment be run against realistic traffic shapes (steady, random, bursty, growing, daily) rather than one fixed pattern,
+ * or against recorded traffic (trace), which also gives the key & size of every event.
+ * An instance is used by one Event Generator thread only.
+ */
+public interface ArrivalProcess {
+
+    // Returned by nextArrivalNanos when no event will ever happen again
+    long NEVER = Long.MAX_VALUE;
+
+    // Returns the time of the next event, in nsec since the start of the experiment. Never less than the time returned by the previous call
+    long nextArrivalNanos();
+
+    // The key of the event nextArrivalNanos last returned, or null to let the Event Generator pick one (see numKeys).
+    // May be reused by the next call, so it must be used straight away
+    default CharSequence key() {
+        return null;
+    }
+
+    // The message size (as msgSize: the key & content, without timestamp & separators) of the event nextArrivalNanos last returned,
+    // or -1 for the Event Generator's own msgSize
+    default int messageSize() {
+        return -1;
+    }
+
+    // Returns the process called name (constant, poisson, onOff, ramp, step, diurnal or trace) with a mean rate of ratePerSecond events per second
+    // (trace ignores ratePerSecond & replays arrivalTraceFile instead).
+    // The other parameters are read from parameters (the arrival... properties of eventsource.properties); those left out get defaults
+    // that are scaled to ratePerSecond & periodMillis (the length of the experiment), so that the mean rate over the period is ratePerSecond.
+    // A rate that is set explicitly wins: the mean then follows from it. random drives the random processes
+    static ArrivalProcess named(String name, double ratePerSecond, Properties parameters, long periodMillis, Random random) {
+        if (name.equalsIgnoreCase("constant"))
+            return new ConstantArrivalProcess(ratePerSecond);
+        if (name.equalsIgnoreCase("poisson"))
+            return new PoissonArrivalProcess(ratePerSecond, random);
+        if (name.equalsIgnoreCase("onOff")) {
+            double idleRate = parameter(parameters, "arrivalIdleRate", 0);
+            double meanOnMillis = parameter(parameters, "arrivalMeanOnMs", 1000);
+            double meanOffMillis = parameter(parameters, "arrivalMeanOffMs", 5000);
+            // the mean rate is (burstRate * meanOn + idleRate * meanOff) / (meanOn + meanOff)
+            double burstRate = Math.max(0, (ratePerSecond * (meanOnMillis + meanOffMillis) - idleRate * meanOffMillis) / meanOnMillis);
+            return new OnOffArrivalProcess(parameter(parameters, "arrivalBurstRate", burstRate), idleRate, meanOnMillis, meanOffMillis, random);
+        }
+        if (name.equalsIgnoreCase("ramp") || name.equalsIgnoreCase("step")) {
+            int steps = (name.equalsIgnoreCase("ramp") ? 0 : (int) parameter(parameters, "arrivalSteps", 4));
+            double rampMillis = parameter(parameters, "arrivalRampMs", periodMillis);
+            // the mean rate over the period is startWeight * startRate + endWeight * endRate: during the ramp the rate averages
+            // (startRate + endRate) / 2 (just startRate with a single step), & after it the rate is endRate
+            double rampShare = Math.min(1, rampMillis / periodMillis);
+            double startWeight = (steps == 1 ? rampShare : rampShare / 2);
+            double endWeight = 1 - startWeight;
+            double startRate;
+            double endRate;
+            if (parameters.getProperty("arrivalEndRate", "").trim().isEmpty() || endWeight == 0) {
+                // by default a ninefold growth, from a fifth of the mean
+                startRate = parameter(parameters, "arrivalStartRate", (endWeight == 0 ? ratePerSecond : 0.2 * ratePerSecond));
+                endRate = parameter(parameters, "arrivalEndRate", (endWeight == 0 ? startRate : Math.max(0, (ratePerSecond - startWeight * startRate) / endWeight)));
+            } else {
+                endRate = parameter(parameters, "arrivalEndRate", 0);
+                startRate = parameter(parameters, "arrivalStartRate", Math.max(0, (ratePerSecond - endWeight * endRate) / startWeight));
+            }
+            return new RampArrivalProcess(startRate, endRate, rampMillis, steps, random);
+        }
+        if (name.equalsIgnoreCase("diurnal"))
+            return new DiurnalArrivalProcess(ratePerSecond, parameter(parameters, "arrivalAmplitude", 0.8),
+                    parameter(parameters, "arrivalCycleMs", periodMillis), random);
+        if (name.equalsIgnoreCase("trace"))
+            return new TraceArrivalProcess(new File(text(parameters, "arrivalTraceFile", "")), text(parameters, "arrivalTraceFormat", "jsonl"),
+                    parameter(parameters, "arrivalTraceSpeed", 1));
+        throw new IllegalArgumentException("unknown arrival process: " + name + " (must be constant, poisson, onOff, ramp, step, diurnal or trace)");
+    }
+
+    private static String text(Properties parameters, String key, String defaultValue) {
+        String value = parameters.getProperty(key);
+        return (value == null || value.trim().isEmpty() ? defaultValue : value.trim());
+    }
+
+    private static double parameter(Properties parameters, String key, double defaultValue) {
+        String value = parameters.getProperty(key);
+        return (value == null || value.trim().isEmpty() ? defaultValue : Double.parseDouble(value.trim()));
+    }
+}
@@ -0,0 +1,20 @@
+package aa.race.arrival;
+
+// Evenly spaced events, ratePerSecond per second, the first one straight away.
+// Event i is at i / ratePerSecond, worked out from i rather than added up, so rounding does not add up either
+public class ConstantArrivalProcess implements ArrivalProcess {
+
+    private final double intervalNanos;
+    private long noOfArrivals;
+
+    public ConstantArrivalProcess(double ratePerSecond) {
+        this.intervalNanos = (ratePerSecond > 0 ? 1e9 / ratePerSecond : Double.POSITIVE_INFINITY);
+    }
+
+    public long nextArrivalNanos() {
+        if (intervalNanos == Double.POSITIVE_INFINITY)
+            return NEVER; // rate 0
+        double at = noOfArrivals++ * intervalNanos;
+        return (at >= NEVER ? NEVER : Math.round(at));
+    }
+}
@@ -0,0 +1,26 @@
+package aa.race.arrival;
+
+import java.util.Random;
+
+// Daily traffic: the rate swings smoothly around meanRate, from meanRate * (1 - amplitude) at the quietest time to
+// meanRate * (1 + amplitude) at the busiest, one full cycle every cycleMillis (a day compressed into the experiment, by default).
+// Starts at the quietest time. Events are Poisson at the current rate
+public class DiurnalArrivalProcess extends RateCurveArrivalProcess {
+
+    private final double meanRate;
+    private final double amplitude;     // 0 --> constant, 1 --> drops to 0 at the quietest time
+    private final double cycleNanos;
+
+    public DiurnalArrivalProcess(double meanRate, double amplitude, double cycleMillis, Random random) {
+        super(meanRate * (1 + amplitude), random);
+        if (meanRate < 0 || amplitude < 0 || amplitude > 1 || cycleMillis <= 0)
+            throw new IllegalArgumentException("diurnal arrival process needs a rate of at least 0, an amplitude from 0 to 1 & a cycle time above 0");
+        this.meanRate = meanRate;
+        this.amplitude = amplitude;
+        this.cycleNanos = cycleMillis * 1e6;
+    }
+
+    protected double rate(double nanos) {
+        return meanRate * (1 - amplitude * Math.cos(2 * Math.PI * nanos / cycleNanos));
+    }
+}
@@ -0,0 +1,54 @@
+package aa.race.arrival;
+
+import java.util.Random;
+
+// Bursty traffic: a two-state Markov-modulated Poisson process (MMPP). The source switches between an "on" state, with Poisson events at
+// burstRate per second, & an "off" state at idleRate (often 0). Each on & off spell lasts an exponentially distributed time with a mean of
+// meanOnMillis & meanOffMillis. Starts on with the probability of being on at any time, meanOnMillis / (meanOnMillis + meanOffMillis),
+// so the mean rate over any stretch of time, from the start too, is (burstRate * meanOnMillis + idleRate * meanOffMillis) / (meanOnMillis + meanOffMillis)
+public class OnOffArrivalProcess implements ArrivalProcess {
+
+    private final double burstRate;
+    private final double idleRate;
+    private final double meanOnNanos;
+    private final double meanOffNanos;
+    private final Random random;
+
+    private boolean on;
+    private double now;             // nsec, time of the previous event
+    private double stateEnd;        // nsec, when the current spell ends
+
+    public OnOffArrivalProcess(double burstRate, double idleRate, double meanOnMillis, double meanOffMillis, Random random) {
+        if (burstRate < 0 || idleRate < 0 || meanOnMillis <= 0 || meanOffMillis <= 0)
+            throw new IllegalArgumentException("onOff arrival process needs rates of at least 0 & mean on/off times above 0");
+        this.burstRate = burstRate;
+        this.idleRate = idleRate;
+        this.meanOnNanos = meanOnMillis * 1e6;
+        this.meanOffNanos = meanOffMillis * 1e6;
+        this.random = random;
+        on = (random.nextDouble() * (meanOnNanos + meanOffNanos) < meanOnNanos);
+        stateEnd = spell(on ? meanOnNanos : meanOffNanos); // the spells are memoryless, so the first one is a whole spell too
+    }
+
+    public long nextArrivalNanos() {
+        if (burstRate == 0 && idleRate == 0)
+            return NEVER; // neither spell has events: switching between them would never find one
+        while (true) {
+            double at = now + PoissonArrivalProcess.exponentialGapNanos(on ? burstRate : idleRate, random);
+            if (at <= stateEnd) {
+                now = at;
+                return (now >= NEVER ? NEVER : (long) now);
+            }
+            // no event before the spell ends: the gaps are memoryless, so drawing again from the switch is exact
+            if (stateEnd >= NEVER)
+                return NEVER;
+            now = stateEnd;
+            on = !on;
+            stateEnd = now + spell(on ? meanOnNanos : meanOffNanos);
+        }
+    }
+
+    private double spell(double meanNanos) {
+        return -Math.log(1 - random.nextDouble()) * meanNanos;
+    }
+}
@@ -0,0 +1,29 @@
+package aa.race.arrival;
+
+import java.util.Random;
+
+// Independent events at a mean of ratePerSecond per second: the gaps between them are exponentially distributed.
+// The usual model for many independent sources (e.g. many sensors) added together
+public class PoissonArrivalProcess implements ArrivalProcess {
+
+    private final double ratePerSecond;
+    private final Random random;
+    private double now;     // nsec, time of the previous event
+
+    public PoissonArrivalProcess(double ratePerSecond, Random random) {
+        this.ratePerSecond = ratePerSecond;
+        this.random = random;
+    }
+
+    public long nextArrivalNanos() {
+        now += exponentialGapNanos(ratePerSecond, random);
+        return (now >= NEVER ? NEVER : (long) now);
+    }
+
+    // A random gap (nsec) between two events of a Poisson process of ratePerSecond. Infinite if the rate is 0
+    static double exponentialGapNanos(double ratePerSecond, Random random) {
+        if (ratePerSecond <= 0)
+            return Double.POSITIVE_INFINITY;
+        return -Math.log(1 - random.nextDouble()) / ratePerSecond * 1e9;
+    }
+}
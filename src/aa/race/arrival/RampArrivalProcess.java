@@ -0,0 +1,35 @@
+package aa.race.arrival;
+
+import java.util.Random;
+
+// Load that grows (or shrinks) from startRate to endRate events per second over rampMillis, then stays at endRate.
+// With steps = 0 the rate changes linearly; otherwise it climbs in that many equal steps, each held for rampMillis / steps
+// (the first step at startRate, the last one at endRate). Events are Poisson at the current rate
+public class RampArrivalProcess extends RateCurveArrivalProcess {
+
+    private final double startRate;
+    private final double endRate;
+    private final double rampNanos;
+    private final int steps;
+
+    public RampArrivalProcess(double startRate, double endRate, double rampMillis, int steps, Random random) {
+        super(Math.max(startRate, endRate), random);
+        if (startRate < 0 || endRate < 0 || rampMillis <= 0 || steps < 0)
+            throw new IllegalArgumentException("ramp arrival process needs rates of at least 0, a ramp time above 0 & at least 0 steps");
+        this.startRate = startRate;
+        this.endRate = endRate;
+        this.rampNanos = rampMillis * 1e6;
+        this.steps = steps;
+    }
+
+    protected double rate(double nanos) {
+        if (nanos >= rampNanos)
+            return endRate;
+        double progress = nanos / rampNanos;
+        if (steps == 1)
+            return startRate;
+        if (steps > 1)
+            progress = Math.floor(progress * steps) / (steps - 1);
+        return startRate + (endRate - startRate) * progress;
+    }
+}
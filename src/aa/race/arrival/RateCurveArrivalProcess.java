@@ -0,0 +1,31 @@
+package aa.race.arrival;
+
+import java.util.Random;
+
+// A Poisson process whose rate follows a curve over time (a non-homogeneous Poisson process). Events are drawn at the curve's highest
+// rate & each one is kept with probability rate(t) / maxRate (thinning), which gives exactly the curve however fast it changes.
+// Subclasses give the curve
+public abstract class RateCurveArrivalProcess implements ArrivalProcess {
+
+    private final double maxRate;
+    private final Random random;
+    private double now;     // nsec, time of the previous candidate event
+
+    protected RateCurveArrivalProcess(double maxRate, Random random) {
+        this.maxRate = maxRate;
+        this.random = random;
+    }
+
+    // events per second at nanos since the start. Never more than maxRate
+    protected abstract double rate(double nanos);
+
+    public long nextArrivalNanos() {
+        while (true) {
+            now += PoissonArrivalProcess.exponentialGapNanos(maxRate, random);
+            if (now >= NEVER)
+                return NEVER;
+            if (random.nextDouble() * maxRate < rate(now))
+                return (long) now;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package aa.race.arrival;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Trace replay
+ * Replays a recorded event log: every event of the trace is fired with its original gap to the first one, divided by speed
+ * (1 --> real time, 10 --> ten times faster, 0 --> as fast as possible), with the key & message size it was recorded with.
+ * The file is memory-mapped a window (up to 1 GB) at a time & read front to back, so traces of many GB stream through without being loaded.
+ * Two formats:
+ *  - jsonl:  one event per line, e.g. {"ts": 1760000000123.25, "key": "user42", "size": 60}. ts is in msec (a fraction gives sub-msec times),
+ *            key & size may be left out (or null); other fields are ignored. Blank lines are skipped
+ *  - binary: one event after another, each a big-endian 8-byte timestamp in nsec, a 4-byte size (-1 --> none), a 2-byte key length
+ *            (0 --> none) & the key bytes (ASCII)
+ * Keys must not contain the record separators ~ or :. An event that goes back in time is fired together with the one before it.
+ * Reading & parsing allocate nothing per event. The file is opened on the first call, so an unused instance holds no file open.
+ * A trace that cannot be read is a fatal error.
+ */
+public class TraceArrivalProcess implements ArrivalProcess {
+
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int BINARY_HEADER = 8 + 4 + 2;
+    private static final long END = Long.MIN_VALUE;     // returned by the readers at the end of the trace
+
+    private final File file;
+    private final boolean binary;
+    private final double speed;
+
+    private FileChannel channel;
+    private long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart;       // byte position of the window in the file
+    private long pos;               // byte position of the next byte to read
+    private long lineNumber;        // jsonl: newlines read so far
+    private boolean finished;
+
+    private boolean started;
+    private long firstTimestamp;    // nsec, of the first event of the trace
+    private long previous;          // nsec, the time last returned
+
+    private final StringBuilder key = new StringBuilder();
+    private boolean hasKey;
+    private int messageSize;
+    private final StringBuilder name = new StringBuilder();     // jsonl: field name (or skipped string) being read
+
+    // format is jsonl or binary. speed 0 --> as fast as possible
+    public TraceArrivalProcess(File file, String format, double speed) {
+        if (!(format.equalsIgnoreCase("jsonl") || format.equalsIgnoreCase("binary")))
+            throw new IllegalArgumentException("arrivalTraceFormat must be jsonl or binary");
+        if (!(file.isFile() && file.canRead()))
+            throw new IllegalArgumentException("arrivalTraceFile " + file + " is not a readable file");
+        if (speed < 0)
+            throw new IllegalArgumentException("arrivalTraceSpeed must be at least 0");
+        this.file = file;
+        this.binary = format.equalsIgnoreCase("binary");
+        this.speed = speed;
+    }
+
+    public long nextArrivalNanos() {
+        if (finished)
+            return NEVER;
+        try {
+            if (channel == null)
+                open();
+            long timestamp = (binary ? readBinaryRecord() : readJsonRecord());
+            if (timestamp == END) {
+                finished = true;
+                channel.close();
+                return NEVER;
+            }
+            if (!started) {
+                firstTimestamp = timestamp;
+                started = true;
+            }
+            long at = (speed == 0 ? 0 : (long) ((timestamp - firstTimestamp) / speed));
+            previous = Math.max(previous, at);
+            return previous;
+        } catch (IOException e) {
+            System.err.println("*** FATAL ERROR: " + e.getMessage());
+            System.err.println("*** LIKELY REASON: Ensure that arrivalTraceFile in eventsource.properties is a " + (binary ? "binary" : "jsonl") + " trace");
+            System.exit(1);
+            return NEVER;
+        }
+    }
+
+    public CharSequence key() {
+        return (hasKey ? key : null);
+    }
+
+    public int messageSize() {
+        return messageSize;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+        windowStart = 0;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, fileSize));
+    }
+
+    // The byte at position p of the file, mapping the window starting at p first if p is outside the current one
+    private byte getByte(long p) throws IOException {
+        if (p < windowStart || p >= windowStart + window.capacity()) {
+            windowStart = p;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, p, Math.min(WINDOW_SIZE, fileSize - p));
+        }
+        return window.get((int) (p - windowStart));
+    }
+
+    // ---------------------------------------------------------------- binary
+
+    private long readBinaryRecord() throws IOException {
+        if (pos >= fileSize)
+            return END;
+        if (fileSize - pos < BINARY_HEADER)
+            throw new IOException("truncated record at byte " + pos + " of " + file);
+        long timestamp = readBigEndian(8);
+        messageSize = (int) readBigEndian(4);
+        int keyLength = (int) readBigEndian(2);
+        if (fileSize - pos < keyLength)
+            throw new IOException("truncated key at byte " + pos + " of " + file);
+        key.setLength(0);
+        for (int i = 0; i < keyLength; i++)
+            key.append((char) (getByte(pos++) & 0xFF));
+        hasKey = (keyLength > 0);
+        checkKey("record ending at byte " + pos);
+        if (messageSize < 0)
+            messageSize = -1;
+        return timestamp;
+    }
+
+    private long readBigEndian(int noOfBytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < noOfBytes; i++)
+            value = (value << 8) | (getByte(pos++) & 0xFF);
+        // sign-extend, so a 4-byte size of -1 stays -1
+        int shift = 64 - 8 * noOfBytes;
+        return (noOfBytes == 2 ? value : (value << shift) >> shift);
+    }
+
+    // ---------------------------------------------------------------- jsonl
+
+    // Reads the next non-blank line as one event & returns its timestamp in nsec
+    private long readJsonRecord() throws IOException {
+        while (true) {
+            if (pos >= fileSize)
+                return END;
+            byte b = getByte(pos);
+            if (b == '\n') {
+                lineNumber++;
+                pos++;
+            } else if (isSpace(b)) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+
+        long timestamp = END;
+        hasKey = false;
+        messageSize = -1;
+        expect('{');
+        skipSpaces();
+        if (peek() == '}') {
+            pos++;
+        } else {
+            while (true) {
+                skipSpaces();
+                readString(name);
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                if (isName("ts")) {
+                    timestamp = readTimestamp();
+                } else if (isName("key") && peek() == '"') {
+                    readString(key);
+                    hasKey = true;
+                    checkKey("line " + (lineNumber + 1));
+                } else if (isName("size") && peek() != 'n') {
+                    messageSize = readSize();
+                } else {
+                    skipValue();
+                }
+                skipSpaces();
+                byte c = next();
+                if (c == '}')
+                    break;
+                if (c != ',')
+                    throw malformed("expected , or }");
+            }
+        }
+        skipSpaces();
+        if (pos < fileSize && getByte(pos) != '\n')
+            throw malformed("more than one event on the line");
+        if (timestamp == END)
+            throw malformed("no ts");
+        return timestamp;
+    }
+
+    // ts in msec, with an optional fraction, as nsec
+    private long readTimestamp() throws IOException {
+        long whole = readDigits();
+        long nanos = 0;
+        if (peek() == '.') {
+            pos++;
+            long scale = 100000;
+            byte b;
+            while (pos < fileSize && (b = getByte(pos)) >= '0' && b <= '9') {
+                nanos += (b - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+        if (pos < fileSize && (getByte(pos) == 'e' || getByte(pos) == 'E'))
+            throw malformed("ts must be written without an exponent");
+        if (whole > (Long.MAX_VALUE - nanos) / 1000000)
+            throw malformed("ts out of range");
+        return whole * 1000000 + nanos;
+    }
+
+    private int readSize() throws IOException {
+        long size = readDigits();
+        if (size > Integer.MAX_VALUE)
+            throw malformed("size out of range");
+        return (int) size;
+    }
+
+    // one or more decimal digits
+    private long readDigits() throws IOException {
+        long value = 0;
+        int noOfDigits = 0;
+        byte b;
+        while (pos < fileSize && (b = getByte(pos)) >= '0' && b <= '9') {
+            if (value > (Long.MAX_VALUE - 9) / 10)
+                throw malformed("number out of range");
+            value = value * 10 + (b - '0');
+            noOfDigits++;
+            pos++;
+        }
+        if (noOfDigits == 0)
+            throw malformed("expected a number at least 0");
+        return value;
+    }
+
+    // Reads a JSON string into text, decoding escapes & UTF-8
+    private void readString(StringBuilder text) throws IOException {
+        expect('"');
+        text.setLength(0);
+        while (true) {
+            byte b = next();
+            if (b == '"')
+                return;
+            if (b == '\\') {
+                byte e = next();
+                switch (e) {
+                    case 'n': text.append('\n'); break;
+                    case 't': text.append('\t'); break;
+                    case 'r': text.append('\r'); break;
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'u':
+                        int c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+                            if (digit < 0)
+                                throw malformed("bad \\u escape");
+                            c = (c << 4) | digit;
+                        }
+                        text.append((char) c);
+                        break;
+                    default: text.append((char) e); // \" \\ \/
+                }
+            } else if (b >= 0) {
+                text.append((char) b);
+            } else {
+                // multi-byte UTF-8: the number of leading 1 bits of the first byte gives the number of bytes
+                int noOfBytes = (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 0;
+                if (noOfBytes == 0)
+                    throw malformed("bad UTF-8");
+                int codePoint = b & (0xFF >> (noOfBytes + 1));
+                for (int i = 1; i < noOfBytes; i++)
+                    codePoint = (codePoint << 6) | (next() & 0x3F);
+                text.appendCodePoint(codePoint);
+            }
+        }
+    }
+
+    // Skips a value of a field that is not used: a string, a number, a literal or a nested object or array
+    private void skipValue() throws IOException {
+        byte b = peek();
+        if (b == '"') {
+            readString(name);
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            do {
+                b = peek();
+                if (b == '"') {
+                    readString(name);
+                    continue;
+                }
+                pos++;
+                if (b == '{' || b == '[')
+                    depth++;
+                else if (b == '}' || b == ']')
+                    depth--;
+                else if (b == '\n')
+                    throw malformed("unterminated value");
+            } while (depth > 0);
+            return;
+        }
+        while (pos < fileSize && (b = getByte(pos)) != ',' && b != '}' && b != ']' && b != '\n' && !isSpace(b))
+            pos++;
+    }
+
+    private boolean isName(String expected) {
+        return name.length() == expected.length() && name.indexOf(expected) == 0;
+    }
+
+    private void skipSpaces() throws IOException {
+        while (pos < fileSize && isSpace(getByte(pos)))
+            pos++;
+    }
+
+    private static boolean isSpace(byte b) {
+        return (b == ' ' || b == '\t' || b == '\r');
+    }
+
+    private void expect(char c) throws IOException {
+        if (next() != c)
+            throw malformed("expected " + c);
+    }
+
+    // the next byte of the line, without moving past it
+    private byte peek() throws IOException {
+        if (pos >= fileSize || getByte(pos) == '\n')
+            throw malformed("unexpected end of line");
+        return getByte(pos);
+    }
+
+    private byte next() throws IOException {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    private IOException malformed(String reason) {
+        return new IOException("line " + (lineNumber + 1) + " of " + file + " is not a valid event: " + reason);
+    }
+
+    // ---------------------------------------------------------------- both
+
+    private void checkKey(String where) throws IOException {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '~' || c == ':')
+                throw new IOException(where + " of " + file + " has a key with ~ or : in it");
+        }
+    }
+}
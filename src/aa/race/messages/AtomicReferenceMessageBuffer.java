@@ -0,0 +1,162 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Message Buffer class
+ * represents the Message Buffer to which the Event Generator will be "writing" to
+ * The contents are an immutable Snapshot (version, timestamp, text) which every write replaces through an AtomicReference (copy-on-write).
+ * Readers just get() the reference: no lock, no retry, wait-free. The version goes up by one with every change,
+ * which lets a Pull Server skip sending a value its client already has.
+ */
+public class AtomicReferenceMessageBuffer implements MessageBuffer {
+
+    // one immutable value of the buffer
+    public static class Snapshot {
+        public final long version;    // 0 for the initial empty buffer, then +1 for every change
+        public final long timestamp;  // time (msec) at which this value was published
+        public final String msg;      // the actual message, "" if the buffer is empty
+
+        Snapshot(long version, long timestamp, String msg) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.msg = msg;
+        }
+    }
+
+    private AtomicReference<Snapshot> current = new AtomicReference<Snapshot>(new Snapshot(0, System.currentTimeMillis(), ""));
+    private int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private boolean dropNewCharWhenBufferFull; // determines if new characters will push out old characters if an insert is attempted when the buffer is full
+
+    // Constructor. initializes instance variables
+    public AtomicReferenceMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+    }
+
+    // Replaces the whole contents of the buffer with newText, in one go (used when only the latest message is wanted)
+    public void setMessageBufferText(String newText) {
+        publish("", newText, true);
+    }
+
+    // Append a String to the back of the encapsulated message
+    // Note that if the message buffer size is breached, whole messages will be dropped (discarded)
+    // If dropNewCharWhenBufferFull is true, the new message will be dropped
+    // If dropNewCharWhenBufferFull is false, the oldest messages will be dropped & the new message "pushed in"
+    public void appendToBack(String newText) {
+        publish(null, newText, false);
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        publish("", "", true);
+    }
+
+    // The current value of the buffer. Never null
+    public Snapshot getSnapshot() {
+        return current.get();
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        String temp = current.get().msg;
+        return (temp.length() == 0 ? null : temp);
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    public String getWholeMsgAndClear() {
+        while (true) {
+            Snapshot taken = current.get();
+            if (taken.msg.length() == 0) {
+                return null;
+            }
+            if (current.compareAndSet(taken, new Snapshot(taken.version + 1, System.currentTimeMillis(), ""))) {
+                Diagnostics.record("returned characters", taken.msg.length());
+                return taken.msg;
+            }
+        }
+    }
+
+    // Swaps in the message without the whole events within the limits at its front, then splits those events into sink
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        while (true) {
+            Snapshot taken = current.get();
+            if (taken.msg.length() == 0 || maxEvents <= 0) {
+                return 0;
+            }
+            int end = EventFormat.wholeRecordsWithin(taken.msg, maxEvents, maxChars);
+            if (current.compareAndSet(taken, new Snapshot(taken.version + 1, System.currentTimeMillis(), taken.msg.substring(end)))) {
+                int noOfEventsMoved = EventFormat.addRecords(taken.msg.substring(0, end), sink);
+                Diagnostics.record("drained messages", noOfEventsMoved);
+                return noOfEventsMoved;
+            }
+        }
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        // this method is not used.
+        Snapshot temp = current.get();
+        System.out.println("Message Buffer (version " + temp.version + "): " + temp.msg);
+        System.out.println("Message Buffer contains " + temp.msg.length() + " characters.");
+    }
+
+    // Returns true if buffer is empty (i.e. length is zero), returns false otherwise
+    public boolean isEmpty() {
+        // this method is not used.
+        return (current.get().msg.length() == 0);
+    }
+
+    // Builds the next Snapshot from base (or from the current message if base is null) plus newText & swaps it in, retrying if another writer got there first
+    // Messages are kept or dropped whole. The dropped messages are only counted once the swap has succeeded
+    private void publish(String base, String newText, boolean alwaysPublish) {
+        // a message bigger than the whole buffer can never fit
+        if (newText.length() > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            newText = "";
+        }
+        while (true) {
+            Snapshot old = current.get();
+            String oldMsg = (base == null ? old.msg : base);
+            String newMsg;
+            String dropped = "";
+
+            if (oldMsg.length() + newText.length() <= maxMsgSize) {
+                newMsg = oldMsg + newText;
+            } else if (dropNewCharWhenBufferFull) {
+                // the new message does not fit & is dropped
+                newMsg = oldMsg;
+                dropped = newText;
+            } else {
+                // the oldest messages are pushed out
+                newMsg = oldMsg + newText;
+                int noOfCharToCut = EventFormat.wholeRecordsPrefix(newMsg, newMsg.length() - maxMsgSize);
+                dropped = newMsg.substring(0, noOfCharToCut);
+                newMsg = newMsg.substring(noOfCharToCut);
+            }
+
+            if (!alwaysPublish && newMsg.equals(old.msg)) {
+                // nothing changed (e.g. the whole new message was dropped), so the version stays
+                report(dropped);
+                return;
+            }
+            if (current.compareAndSet(old, new Snapshot(old.version + 1, System.currentTimeMillis(), newMsg))) {
+                report(dropped);
+                return;
+            }
+        }
+    }
+
+    private void report(String dropped) {
+        if (dropped.length() == 0)
+            return;
+        if (dropNewCharWhenBufferFull) {
+            Diagnostics.recordDropped("full - dropped new", dropped);
+        } else {
+            Diagnostics.record("full - pushed out messages", EventFormat.countRecords(dropped));
+            Diagnostics.count("full - pushed out characters", dropped.length());
+            Diagnostics.count("full - pushed out bytes", EventFormat.utf8Length(dropped));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package aa.race.messages;
+
+import java.util.concurrent.TimeUnit;
+
+// Overflow policy: the Event Generator waits (up to a timeout) for the Pull Servers to drain enough of the buffer for the new message.
+// If the timeout expires, the new message is dropped whole
+public class BlockProducerOverflowPolicy implements OverflowPolicy {
+
+    private long timeoutNanos;           // how long the producer may be held up per message
+
+    public BlockProducerOverflowPolicy(long timeoutMillis) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public void append(Buffer buffer, String newText) {
+        if (buffer.getFreeSpace() >= newText.length()) {
+            buffer.append(newText);
+            return;
+        }
+
+        boolean fits = false;
+        if (newText.length() <= buffer.getMaxSize()) {
+            Diagnostics.count("full - blocked appends", 1);
+            try {
+                fits = buffer.awaitFreeSpace(newText.length(), timeoutNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // keep the interrupt for the caller & drop the message
+            }
+        }
+        if (fits) {
+            buffer.append(newText);
+            return;
+        }
+
+        Diagnostics.recordDropped("stayed full - dropped new", newText);
+    }
+}
@@ -0,0 +1,220 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Broadcast Message Buffer
+ * An append-only log of records in a circular array. Every consumer (one per Pull Server) has its own read cursor,
+ * so every client receives every event while the log is held only once.
+ * Records are reclaimed when all consumers have read them: when the log is full, the lowest cursor (the low-water mark)
+ * is worked out once & everything below it is freed.
+ * If that is not enough, dropNewCharWhenBufferFull decides between dropping the new record & pushing out the oldest one
+ * (in which case consumers that had not read it yet miss it).
+ */
+public class BroadcastMessageBuffer implements MessageBuffer {
+
+    private final String[] records;   // the log itself. The record with sequence number seq sits at seq % maxRecords
+    // per consumer: sequence number of the next record it will read. A consumer moves its own cursor with only the read lock held,
+    // while other readers (getWholeMsg, isEmpty) look at every cursor, so the cursors must be atomic
+    private final AtomicLongArray cursors;
+    private long headSeq;             // sequence number of the oldest record still held
+    private long tailSeq;             // sequence number the next appended record will get
+    private int noOfCharInBuffer;     // characters held by records headSeq .. tailSeq - 1
+
+    private final int maxRecords;     // the log never holds more records than this
+    private final int maxMsgSize;     // ... nor more characters than this
+    private final boolean dropNewCharWhenBufferFull; // determines if new records will push out old records if an insert is attempted when the buffer is full
+
+    // consumers only move their own cursor, so they share the read lock & never wait for each other
+    private ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private Lock readLock = InstrumentedLock.wrap("BroadcastMessageBuffer read lock", readWriteLock.readLock());
+    private Lock writeLock = InstrumentedLock.wrap("BroadcastMessageBuffer write lock", readWriteLock.writeLock());
+
+    // Constructor. initializes instance variables
+    public BroadcastMessageBuffer(int noOfConsumers, int maxRecords, int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.maxRecords = maxRecords;
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+        records = new String[maxRecords];
+        cursors = new AtomicLongArray(noOfConsumers);
+    }
+
+    // Append a record to the back of the log
+    // If dropNewCharWhenBufferFull is true, the new record is dropped when it does not fit, even after reclaiming what every consumer has read
+    // If dropNewCharWhenBufferFull is false, the oldest records are pushed out until it fits
+    public void appendToBack(String newText) {
+        writeLock.lock();
+        try {
+            if (!fits(newText.length()))
+                reclaim();
+
+            if (newText.length() > maxMsgSize || (dropNewCharWhenBufferFull && !fits(newText.length()))) {
+                Diagnostics.recordDropped("full - dropped new", newText);
+                return;
+            }
+
+            int noOfRecordsPushedOut = 0;
+            int noOfCharPushedOut = 0;
+            while (!fits(newText.length())) {
+                noOfCharPushedOut += records[index(headSeq)].length();
+                removeOldest();
+                noOfRecordsPushedOut++;
+            }
+            if (noOfRecordsPushedOut > 0) {
+                // consumers that had not read the pushed out records skip them
+                for (int i = 0; i < cursors.length(); i++)
+                    cursors.set(i, Math.max(cursors.get(i), headSeq));
+                Diagnostics.record("full - pushed out messages", noOfRecordsPushedOut);
+                Diagnostics.count("full - pushed out characters", noOfCharPushedOut);
+            }
+
+            records[index(tailSeq++)] = newText;
+            noOfCharInBuffer += newText.length();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Erase everything in the buffer: every consumer skips to the end of the log
+    public void clear() {
+        writeLock.lock();
+        try {
+            for (int i = 0; i < cursors.length(); i++)
+                cursors.set(i, tailSeq);
+            reclaim();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Return the records not yet read by every consumer as a String or null if there are none
+    public String getWholeMsg() {
+        readLock.lock();
+        try {
+            return concatenate(lowWaterMark());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Same as getWholeMsgAndClear(0)
+    public String getWholeMsgAndClear() {
+        return getWholeMsgAndClear(0);
+    }
+
+    // Returns the records consumerId has not read yet (or null if there are none) & moves its cursor past them
+    // Nothing is removed from the log here; other consumers still get the same records
+    public String getWholeMsgAndClear(int consumerId) {
+        readLock.lock();
+        try {
+            long from = cursors.get(consumerId);
+            String temp = concatenate(from);
+            if (temp == null) {
+                return null;
+            }
+            cursors.set(consumerId, tailSeq);
+
+            Diagnostics.record("returned messages", tailSeq - from);
+            return temp;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Same as drainTo(0, sink, maxEvents, maxChars)
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        return drainTo(0, sink, maxEvents, maxChars);
+    }
+
+    // Moves up to maxEvents records consumerId has not read yet into sink & moves its cursor past them. Like getWholeMsgAndClear(consumerId),
+    // this only takes the read lock, & the records are handed over by reference
+    public int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars) {
+        readLock.lock();
+        try {
+            long from = cursors.get(consumerId);
+            long seq = from;
+            int noOfCharMoved = 0;
+            for (; seq < tailSeq && seq - from < maxEvents; seq++) {
+                String text = records[index(seq)];
+                if (seq > from && noOfCharMoved + text.length() > maxChars)
+                    break;
+                sink.add(text);
+                noOfCharMoved += text.length();
+            }
+            int noOfEventsMoved = (int) (seq - from);
+            cursors.set(consumerId, seq);
+            if (noOfEventsMoved > 0)
+                Diagnostics.record("drained messages", noOfEventsMoved);
+            return noOfEventsMoved;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        readLock.lock();
+        try {
+            String msg = concatenate(headSeq);
+            System.out.println("Message Buffer: " + (msg == null ? "" : msg));
+            System.out.println("Message Buffer contains " + (tailSeq - headSeq) + " messages (" + noOfCharInBuffer + " characters).");
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Returns true if every consumer has read every record, returns false otherwise
+    public boolean isEmpty() {
+        readLock.lock();
+        try {
+            return (lowWaterMark() == tailSeq);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // The lowest cursor: every record below it has been read by all consumers
+    private long lowWaterMark() {
+        long min = tailSeq;
+        for (int i = 0; i < cursors.length(); i++)
+            min = Math.min(min, cursors.get(i));
+        return min;
+    }
+
+    // Frees every record all consumers have read. Caller must hold the write lock
+    private void reclaim() {
+        long lowWaterMark = lowWaterMark();
+        while (headSeq < lowWaterMark)
+            removeOldest();
+    }
+
+    // Caller must hold the write lock
+    private void removeOldest() {
+        int index = index(headSeq++);
+        noOfCharInBuffer -= records[index].length();
+        records[index] = null;
+    }
+
+    // true if a record of length characters can be appended without removing anything
+    private boolean fits(int length) {
+        return (tailSeq - headSeq < maxRecords && noOfCharInBuffer + length <= maxMsgSize);
+    }
+
+    private int index(long seq) {
+        return (int) (seq % maxRecords);
+    }
+
+    // Joins records from .. tailSeq - 1, or returns null if there are none. Caller must hold a lock
+    private String concatenate(long from) {
+        if (from >= tailSeq)
+            return null;
+        StringBuilder builder = new StringBuilder();
+        for (long seq = from; seq < tailSeq; seq++)
+            builder.append(records[index(seq)]);
+        return builder.toString();
+    }
+}
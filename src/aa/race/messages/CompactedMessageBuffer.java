@@ -0,0 +1,184 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Key-compacted Message Buffer
+ * Keeps only the newest event per key ([timestamp]~[key]:[message]~, see EventFormat.parseKey), the middle ground between keeping every
+ * event & keeping only the latest one (setMessageBufferText). The events sit in a LinkedHashMap from key to event, so an event that
+ * replaces the previous one of its key is found, removed & re-linked at the back in O(1): the buffer stays in the order the keys were
+ * last updated & a drain hands out the key that has waited longest first.
+ * Memory is bounded by the number of keys, not by the event rate; maxMsgSize still caps the total number of characters.
+ * Events without a key are never compacted. Events are stored or dropped whole
+ */
+public class CompactedMessageBuffer implements MessageBuffer {
+
+    private final LinkedHashMap<Object, String> latest = new LinkedHashMap<Object, String>(); // key --> newest event of that key, oldest update first
+    private int msgLength;      // total number of characters held
+
+    private final int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private final boolean dropNewCharWhenBufferFull; // determines if new events will push out old events if an insert is attempted when the buffer is full
+
+    private Lock reentrantLock = InstrumentedLock.wrap("CompactedMessageBuffer lock", new ReentrantLock());
+
+    // Constructor. initializes instance variables
+    public CompactedMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+    }
+
+    // Append an event to the back of the buffer, replacing the event of the same key if there is one
+    // If dropNewCharWhenBufferFull is true, the new event is dropped when it does not fit (the event it would have replaced stays)
+    // If dropNewCharWhenBufferFull is false, the events of the keys updated longest ago are pushed out until it fits
+    public void appendToBack(String newText) {
+        // parse outside the lock. A keyless event is its own key, so it never replaces anything
+        String parsedKey = EventFormat.parseKey(newText);
+        Object key = (parsedKey == null ? new Object() : parsedKey);
+        int length = newText.length();
+        if (length > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+
+        reentrantLock.lock();
+        try {
+            String previous = latest.get(key);
+            int freeSpace = maxMsgSize - msgLength + (previous == null ? 0 : previous.length());
+            if (freeSpace < length && dropNewCharWhenBufferFull) {
+                Diagnostics.recordDropped("full - dropped new", newText);
+                return;
+            }
+            if (previous != null) {
+                latest.remove(key); // re-linked at the back below
+                msgLength -= previous.length();
+                Diagnostics.count("compacted - replaced messages", 1);
+            }
+
+            if (msgLength + length > maxMsgSize) {
+                int noOfEventsPushedOut = 0;
+                int noOfCharPushedOut = 0;
+                Iterator<String> oldest = latest.values().iterator();
+                while (msgLength + length > maxMsgSize) {
+                    String text = oldest.next();
+                    oldest.remove();
+                    msgLength -= text.length();
+                    noOfCharPushedOut += text.length();
+                    noOfEventsPushedOut++;
+                }
+                Diagnostics.record("full - pushed out messages", noOfEventsPushedOut);
+                Diagnostics.count("full - pushed out characters", noOfCharPushedOut);
+            }
+
+            latest.put(key, newText);
+            msgLength += length;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Replaces the whole contents of the buffer with newText, in one go
+    public void setMessageBufferText(String newText) {
+        reentrantLock.lock();
+        try {
+            clear();
+            appendToBack(newText);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        reentrantLock.lock();
+        try {
+            latest.clear();
+            msgLength = 0;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Return the newest event of every key as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        reentrantLock.lock();
+        try {
+            return (msgLength == 0 ? null : join());
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    public String getWholeMsgAndClear() {
+        reentrantLock.lock();
+        try {
+            if (msgLength == 0) {
+                return null;
+            }
+            String temp = join();
+            Diagnostics.record("returned characters", temp.length());
+            clear();
+            return temp;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Moves the events of the keys updated longest ago into sink, without concatenating them
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        reentrantLock.lock();
+        try {
+            int noOfEventsMoved = 0;
+            int noOfCharMoved = 0;
+            Iterator<String> oldest = latest.values().iterator();
+            while (noOfEventsMoved < maxEvents && oldest.hasNext()) {
+                String text = oldest.next();
+                if (noOfEventsMoved > 0 && noOfCharMoved + text.length() > maxChars)
+                    break;
+                oldest.remove();
+                sink.add(text);
+                msgLength -= text.length();
+                noOfCharMoved += text.length();
+                noOfEventsMoved++;
+            }
+            if (noOfEventsMoved > 0)
+                Diagnostics.record("drained messages", noOfEventsMoved);
+            return noOfEventsMoved;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        reentrantLock.lock();
+        try {
+            System.out.println("Message Buffer: " + (msgLength == 0 ? "" : join()));
+            System.out.println("Message Buffer contains " + latest.size() + " keys (" + msgLength + " characters).");
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Returns true if buffer is empty (i.e. holds no events), returns false otherwise
+    public boolean isEmpty() {
+        reentrantLock.lock();
+        try {
+            return latest.isEmpty();
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Concatenates the events held, key updated longest ago first. Caller must hold the lock
+    private String join() {
+        StringBuilder builder = new StringBuilder(msgLength);
+        for (String text : latest.values())
+            builder.append(text);
+        return builder.toString();
+    }
+}
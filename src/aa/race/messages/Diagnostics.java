@@ -0,0 +1,179 @@
+package aa.race.messages;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Diagnostics channel for the Message Buffers & their overflow policies
+ * Printing to the console while holding the buffer's lock made the lock hold time depend on how fast the console is.
+ * Instead, overflow & drain events are recorded here: each one adds to a counter & leaves a log record in a fixed-size ring,
+ * neither of which blocks. A background thread writes the records out in one batch every flushInterval msec, at most maxLinesPerFlush
+ * of them (the rest are only counted), followed by the counters that changed. If the ring laps the writer, the oldest records are lost
+ * (& counted as such); the counters never lose anything.
+ * A flushInterval of 0 writes every record straight away, as the buffers used to.
+ */
+public final class Diagnostics {
+
+    private static final int RING_SIZE = 1 << 12;
+    private static final int MASK = RING_SIZE - 1;
+
+    // one log record
+    private static class Entry {
+        final long seq;     // position in the stream of records, tells a record from the one a lap later
+        final long time;    // msec
+        final String event;
+        final long value;
+
+        Entry(long seq, long time, String event, long value) {
+            this.seq = seq;
+            this.time = time;
+            this.event = event;
+            this.value = value;
+        }
+    }
+
+    // running totals of one event
+    private static class Counter {
+        final LongAdder times = new LongAdder();
+        final LongAdder total = new LongAdder();
+        long timesWritten;  // times at the last flush. Only used by flush
+    }
+
+    private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<Entry>(RING_SIZE);
+    private static final AtomicLong next = new AtomicLong();  // sequence number the next record gets
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private static volatile long flushInterval = 1000;  // msec between two batches. 0 --> no batching
+    private static volatile int maxLinesPerFlush = 50;
+
+    // only used by flush
+    private static long nextToWrite;
+    private static final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+
+    static {
+        Thread writer = new Thread("Diagnostics writer") {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(flushInterval > 0 ? flushInterval : 1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    flush();
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+        // whatever is still in the ring when the experiment ends is written too
+        Runtime.getRuntime().addShutdownHook(new Thread(Diagnostics::flush));
+    }
+
+    private Diagnostics() {
+    }
+
+    // Sets how often (msec) the records are written out & how many lines one batch may have
+    public static void configure(long flushInterval, int maxLinesPerFlush) {
+        Diagnostics.flushInterval = flushInterval;
+        Diagnostics.maxLinesPerFlush = maxLinesPerFlush;
+    }
+
+    // Adds value to the counter of event & leaves a log record of it. Never blocks
+    public static void record(String event, long value) {
+        count(event, value);
+        long time = System.currentTimeMillis();
+        if (flushInterval == 0) {
+            System.out.println(format(time, event, value));
+            System.out.println("---");
+            return;
+        }
+        long seq = next.getAndIncrement();
+        ring.set((int) seq & MASK, new Entry(seq, time, event, value));
+    }
+
+    // Adds value to the counter of event, without a log record
+    public static void count(String event, long value) {
+        Counter counter = counters.get(event);
+        if (counter == null)
+            counter = counters.computeIfAbsent(event, e -> new Counter());
+        counter.times.increment();
+        counter.total.add(value);
+    }
+
+    // Counts a whole message that was dropped under event + " characters" (with a log record), event + " messages" & event + " bytes" (UTF-8)
+    public static void recordDropped(String event, String text) {
+        recordDropped(event, 1, text.length(), EventFormat.utf8Length(text));
+    }
+
+    // Same, for noOfMessages whole messages dropped at once, or for a caller that already knows how many bytes they take up
+    public static void recordDropped(String event, long noOfMessages, long noOfChars, long noOfBytes) {
+        record(event + " characters", noOfChars);
+        count(event + " messages", noOfMessages);
+        count(event + " bytes", noOfBytes);
+    }
+
+    // Writes out the records not written yet & the counters that changed since the last flush
+    public static synchronized void flush() {
+        StringBuilder out = new StringBuilder();
+        long end = next.get();
+        long noOfLost = 0;
+        long noOfSuppressed = 0;
+        int noOfLines = 0;
+
+        if (end - nextToWrite > RING_SIZE) {
+            noOfLost = end - RING_SIZE - nextToWrite;
+            nextToWrite = end - RING_SIZE;
+        }
+        for (; nextToWrite < end; nextToWrite++) {
+            Entry entry = ring.get((int) nextToWrite & MASK);
+            if (entry == null || entry.seq < nextToWrite)
+                break; // claimed but not stored yet: it goes with the next batch
+            if (entry.seq > nextToWrite) {
+                noOfLost++; // overwritten by a later lap
+                continue;
+            }
+            if (noOfLines < maxLinesPerFlush) {
+                out.append(format(entry.time, entry.event, entry.value)).append('\n');
+                noOfLines++;
+            } else {
+                noOfSuppressed++;
+            }
+        }
+        if (noOfSuppressed > 0)
+            out.append("Message Buffer: ").append(noOfSuppressed).append(" more records not shown (only counted)\n");
+        if (noOfLost > 0)
+            out.append("Message Buffer: ").append(noOfLost).append(" records lost (written faster than they could be shown)\n");
+
+        StringBuilder changed = new StringBuilder();
+        for (Map.Entry<String, Counter> e : new TreeMap<String, Counter>(counters).entrySet()) {
+            Counter counter = e.getValue();
+            long times = counter.times.sum();
+            if (times == counter.timesWritten)
+                continue;
+            counter.timesWritten = times;
+            changed.append("  ").append(e.getKey()).append(": ").append(counter.total.sum()).append(" (").append(times).append(" times)\n");
+        }
+        if (changed.length() > 0)
+            out.append("Message Buffer counters so far:\n").append(changed);
+
+        if (out.length() > 0) {
+            out.append("---\n");
+            System.out.print(out);
+            System.out.flush();
+        }
+    }
+
+    private static String format(long time, String event, long value) {
+        String when;
+        synchronized (timeFormat) {
+            when = timeFormat.format(new Date(time));
+        }
+        return "Message Buffer [" + when + "]: " + event + " " + value;
+    }
+}
@@ -0,0 +1,417 @@
+package aa.race.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Off-heap Message Buffer
+ * Stores events UTF-8 encoded in a circular byte space made of direct ByteBuffer segments (up to 1 GB each),
+ * so the capacity is given in bytes, can be many GB, and adds nothing to the heap the garbage collector has to trace.
+ * Each event is kept as a 4-byte length followed by its UTF-8 bytes, & is always stored or dropped as a whole.
+ * appendToBack (& setMessageBufferText from a char array) encodes straight into the segments & drainBytesTo copies straight out of them; neither allocates.
+ * It is the only buffer that takes the Event Generator's char array without making a String of it
+ */
+public class DirectMessageBuffer implements MessageBuffer {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int LENGTH_PREFIX = 4;
+    private static final int MAX_STRING_BYTES = 1 << 30;  // getWholeMsg / getWholeMsgAndClear return at most this much at a time
+
+    private final ByteBuffer[] segments;
+    private final long capacity;   // size of this buffer in bytes (length prefixes included). This size cannot be breached
+    private long head;             // byte position of the oldest event
+    private long tail;             // byte position the next event is written at
+    private int noOfEvents;        // number of events held
+
+    private final boolean dropNewCharWhenBufferFull; // determines if new events will push out old events if an insert is attempted when the buffer is full
+
+    private Lock reentrantLock = InstrumentedLock.wrap("DirectMessageBuffer lock", new ReentrantLock());
+    private final CharArrayView view = new CharArrayView(); // the char array being appended. Guarded by reentrantLock
+    private final byte[] scratch = new byte[8192];          // encode's output, before it is copied into the segments. Guarded by reentrantLock
+    private final byte[] lengthBytes = new byte[LENGTH_PREFIX]; // a length prefix on its way in or out. Guarded by reentrantLock
+
+    // Constructor. allocates the off-heap segments up front
+    public DirectMessageBuffer(long capacity, boolean dropNewCharWhenBufferFull) {
+        this.capacity = capacity;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+        int noOfSegments = (int) ((capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+        segments = new ByteBuffer[noOfSegments];
+        for (int i = 0; i < noOfSegments; i++)
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(SEGMENT_SIZE, capacity - ((long) i << SEGMENT_SHIFT)));
+    }
+
+    // Append an event to the back of the buffer
+    // If dropNewCharWhenBufferFull is true, the new event is dropped when it does not fit
+    // If dropNewCharWhenBufferFull is false, the oldest events are dropped until it fits
+    public void appendToBack(String newText) {
+        int noOfBytes = EventFormat.utf8Length(newText);
+
+        reentrantLock.lock();
+        try {
+            append(newText, noOfBytes);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Same as appendToBack(String), but encodes the characters straight from text, without making a String of them first
+    public void appendToBack(char[] text, int offset, int length) {
+        reentrantLock.lock();
+        try {
+            view.set(text, offset, length);
+            append(view, EventFormat.utf8Length(view));
+        } finally {
+            view.set(null, 0, 0); // do not hold on to the caller's array
+            reentrantLock.unlock();
+        }
+    }
+
+    // Replaces the whole contents of the buffer with the characters of text, in one go & without making a String of them
+    public void setMessageBufferText(char[] text, int offset, int length) {
+        reentrantLock.lock();
+        try {
+            head = tail;
+            noOfEvents = 0;
+            view.set(text, offset, length);
+            append(view, EventFormat.utf8Length(view));
+        } finally {
+            view.set(null, 0, 0); // do not hold on to the caller's array
+            reentrantLock.unlock();
+        }
+    }
+
+    // Stores text, noOfBytes long once encoded, as one event. Caller must hold the lock
+    private void append(CharSequence text, int noOfBytes) {
+        long size = LENGTH_PREFIX + (long) noOfBytes;
+        if (size > capacity || (dropNewCharWhenBufferFull && tail - head + size > capacity)) {
+            Diagnostics.recordDropped("full - dropped new", 1, text.length(), noOfBytes);
+            return;
+        }
+
+        int noOfEventsPushedOut = 0;
+        long noOfCharPushedOut = 0;
+        long noOfBytesPushedOut = 0;
+        while (tail - head + size > capacity) {
+            int oldest = getInt(head);
+            noOfCharPushedOut += charLength(head + LENGTH_PREFIX, oldest);
+            noOfBytesPushedOut += oldest;
+            head += LENGTH_PREFIX + oldest;
+            noOfEvents--;
+            noOfEventsPushedOut++;
+        }
+        if (noOfEventsPushedOut > 0)
+            Diagnostics.recordDropped("full - pushed out", noOfEventsPushedOut, noOfCharPushedOut, noOfBytesPushedOut);
+
+        putInt(tail, noOfBytes);
+        encode(text, tail + LENGTH_PREFIX);
+        tail += size;
+        noOfEvents++;
+    }
+
+    // Moves as many whole events as fit into sink (in the [timestamp]~[message]~ wire format, UTF-8 encoded), oldest first
+    // Returns the number of events moved. Nothing is allocated, so a Pull Server can reuse the same sink for every reply
+    public int drainBytesTo(ByteBuffer sink) {
+        return drainBytesTo(sink, Integer.MAX_VALUE);
+    }
+
+    // Same as drainBytesTo(sink), but moves no more than maxEvents events
+    public int drainBytesTo(ByteBuffer sink, int maxEvents) {
+        reentrantLock.lock();
+        try {
+            int noOfEventsMoved = 0;
+            while (noOfEvents > 0 && noOfEventsMoved < maxEvents) {
+                int noOfBytes = getInt(head);
+                if (noOfBytes > sink.remaining())
+                    break;
+                copyOut(head + LENGTH_PREFIX, noOfBytes, sink);
+                head += LENGTH_PREFIX + noOfBytes;
+                noOfEvents--;
+                noOfEventsMoved++;
+            }
+            if (noOfEventsMoved > 0)
+                Diagnostics.record("drained messages", noOfEventsMoved);
+            return noOfEventsMoved;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Long-poll version of drainBytesTo(sink, maxEvents): if nothing could be moved, looks again until timeoutMillis is up,
+    // backing off the same way as the MessageBuffer long-poll defaults
+    public int drainBytesTo(ByteBuffer sink, int maxEvents, long timeoutMillis) {
+        int noOfEventsMoved = drainBytesTo(sink, maxEvents);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int attempt = 0; noOfEventsMoved == 0 && deadline - System.nanoTime() > 0; attempt++) {
+            LONG_POLL_BACKOFF.idle(attempt);
+            noOfEventsMoved = drainBytesTo(sink, maxEvents);
+        }
+        return noOfEventsMoved;
+    }
+
+    // Decodes events one at a time into sink. The bytes must be copied out of the segments before the lock is released
+    // (a writer may reuse them straight after), but only as many as were asked for. maxChars is counted in bytes
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        reentrantLock.lock();
+        try {
+            int noOfEventsMoved = 0;
+            int noOfBytesMoved = 0;
+            while (noOfEvents > 0 && noOfEventsMoved < maxEvents) {
+                int noOfBytes = getInt(head);
+                if (noOfEventsMoved > 0 && noOfBytesMoved + noOfBytes > maxChars)
+                    break;
+                ByteBuffer bytes = ByteBuffer.allocate(noOfBytes);
+                copyOut(head + LENGTH_PREFIX, noOfBytes, bytes);
+                sink.add(new String(bytes.array(), StandardCharsets.UTF_8));
+                head += LENGTH_PREFIX + noOfBytes;
+                noOfEvents--;
+                noOfBytesMoved += noOfBytes;
+                noOfEventsMoved++;
+            }
+            if (noOfEventsMoved > 0)
+                Diagnostics.record("drained messages", noOfEventsMoved);
+            return noOfEventsMoved;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        reentrantLock.lock();
+        try {
+            head = tail;
+            noOfEvents = 0;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        reentrantLock.lock();
+        try {
+            return decode(false);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Similar to getWholeMsg, except that the events returned are removed from the buffer
+    // At most MAX_STRING_BYTES are returned per call; anything beyond stays for the next call
+    public String getWholeMsgAndClear() {
+        reentrantLock.lock();
+        try {
+            String temp = decode(true);
+            if (temp != null)
+                Diagnostics.record("returned characters", temp.length());
+            return temp;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        reentrantLock.lock();
+        try {
+            String msg = decode(false);
+            System.out.println("Message Buffer: " + (msg == null ? "" : msg));
+            System.out.println("Message Buffer contains " + noOfEvents + " messages (" + (tail - head) + " of " + capacity + " bytes used).");
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Number of bytes the events held take up, length prefixes included: more than drainBytesTo would move for all of them
+    public long noOfBytesHeld() {
+        reentrantLock.lock();
+        try {
+            return tail - head;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Returns true if buffer is empty (i.e. holds no events), returns false otherwise
+    public boolean isEmpty() {
+        reentrantLock.lock();
+        try {
+            return (noOfEvents == 0);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Copies events (up to MAX_STRING_BYTES) into one heap array & decodes them. Caller must hold the lock
+    private String decode(boolean remove) {
+        if (noOfEvents == 0)
+            return null;
+
+        int noOfBytes = 0;
+        int noOfEventsTaken = 0;
+        for (long pos = head; noOfEventsTaken < noOfEvents; noOfEventsTaken++) {
+            int eventBytes = getInt(pos);
+            if (noOfEventsTaken > 0 && (long) noOfBytes + eventBytes > MAX_STRING_BYTES)
+                break;
+            noOfBytes += eventBytes;
+            pos += LENGTH_PREFIX + eventBytes;
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(noOfBytes);
+        long pos = head;
+        for (int i = 0; i < noOfEventsTaken; i++) {
+            int eventBytes = getInt(pos);
+            copyOut(pos + LENGTH_PREFIX, eventBytes, bytes);
+            pos += LENGTH_PREFIX + eventBytes;
+        }
+        if (remove) {
+            head = pos;
+            noOfEvents -= noOfEventsTaken;
+        }
+        return new String(bytes.array(), 0, noOfBytes, StandardCharsets.UTF_8);
+    }
+
+    // Writes text as UTF-8 starting at byte position pos. The bytes are encoded into scratch & written a scratch-full at a time
+    private void encode(CharSequence text, long pos) {
+        int length = text.length();
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n > scratch.length - 4) {
+                putBytes(pos, scratch, n);
+                pos += n;
+                n = 0;
+            }
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | (c >> 6));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                scratch[n++] = (byte) (0xE0 | (c >> 12));
+                scratch[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                scratch[n++] = (byte) (0xF0 | (codePoint >> 18));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                scratch[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                scratch[n++] = (byte) '?'; // lone surrogate, as String.getBytes would do
+            }
+        }
+        putBytes(pos, scratch, n);
+    }
+
+    // pos (here & below) is a position in the unbounded stream of bytes written so far; it maps onto the circular segments at pos % capacity
+
+    // Copies noOfBytes bytes starting at byte position pos into sink, one bulk copy per stretch of a segment
+    private void copyOut(long pos, int noOfBytes, ByteBuffer sink) {
+        int done = 0;
+        while (done < noOfBytes) {
+            long offset = (pos + done) % capacity;
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int index = (int) (offset & (SEGMENT_SIZE - 1));
+            int run = Math.min(noOfBytes - done, segment.capacity() - index);
+            sink.put(sink.position(), segment, index, run);
+            sink.position(sink.position() + run);
+            done += run;
+        }
+    }
+
+    // Writes the first noOfBytes of bytes starting at byte position pos, one bulk copy per stretch of a segment
+    private void putBytes(long pos, byte[] bytes, int noOfBytes) {
+        int done = 0;
+        while (done < noOfBytes) {
+            long offset = (pos + done) % capacity;
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int index = (int) (offset & (SEGMENT_SIZE - 1));
+            int run = Math.min(noOfBytes - done, segment.capacity() - index);
+            segment.put(index, bytes, done, run);
+            done += run;
+        }
+    }
+
+    // Reads noOfBytes bytes starting at byte position pos into the front of bytes, one bulk copy per stretch of a segment
+    private void getBytes(long pos, byte[] bytes, int noOfBytes) {
+        int done = 0;
+        while (done < noOfBytes) {
+            long offset = (pos + done) % capacity;
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int index = (int) (offset & (SEGMENT_SIZE - 1));
+            int run = Math.min(noOfBytes - done, segment.capacity() - index);
+            segment.get(index, bytes, done, run);
+            done += run;
+        }
+    }
+
+    // Number of chars the noOfBytes UTF-8 bytes starting at byte position pos decode to, worked out without decoding them:
+    // one per byte that starts a character, & one more for each 4-byte sequence (a surrogate pair)
+    private int charLength(long pos, int noOfBytes) {
+        int noOfChars = 0;
+        int done = 0;
+        while (done < noOfBytes) {
+            long offset = (pos + done) % capacity;
+            ByteBuffer segment = segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int index = (int) (offset & (SEGMENT_SIZE - 1));
+            int run = Math.min(noOfBytes - done, segment.capacity() - index);
+            for (int i = index; i < index + run; i++) {
+                byte b = segment.get(i);
+                if ((b & 0xC0) != 0x80)
+                    noOfChars += ((b & 0xF8) == 0xF0 ? 2 : 1);
+            }
+            done += run;
+        }
+        return noOfChars;
+    }
+
+    // length prefixes are big-endian
+    private void putInt(long pos, int value) {
+        for (int i = 0; i < LENGTH_PREFIX; i++)
+            lengthBytes[i] = (byte) (value >>> (24 - 8 * i));
+        putBytes(pos, lengthBytes, LENGTH_PREFIX);
+    }
+
+    private int getInt(long pos) {
+        getBytes(pos, lengthBytes, LENGTH_PREFIX);
+        int value = 0;
+        for (int i = 0; i < LENGTH_PREFIX; i++)
+            value = (value << 8) | (lengthBytes[i] & 0xFF);
+        return value;
+    }
+    // A part of a char array seen as a CharSequence, so it can be measured & encoded like a String. Reused for every append
+    private static final class CharArrayView implements CharSequence {
+
+        private char[] array;
+        private int offset;
+        private int length;
+
+        void set(char[] array, int offset, int length) {
+            this.array = array;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return array[offset + index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new String(array, offset + start, end - start);
+        }
+
+        public String toString() {
+            return new String(array, offset, length);
+        }
+    }
+}
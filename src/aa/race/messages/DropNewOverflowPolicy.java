@@ -0,0 +1,17 @@
+package aa.race.messages;
+
+// Overflow policy: a new message that does not fit is not inserted. Original messages in the buffer remain
+// (this is what dropNewCharWhenBufferFull = true does). The message is dropped whole: storing the part that fits would leave a
+// [timestamp]~[message]~ record cut short, which the pull client cannot parse
+public class DropNewOverflowPolicy implements OverflowPolicy {
+
+    public void append(Buffer buffer, String newText) {
+        // buffer is full - whole message dropped
+        if (buffer.getFreeSpace() < newText.length()) {
+            Diagnostics.recordDropped("full - dropped new", newText);
+            return;
+        }
+        // whole message is inserted into buffer
+        buffer.append(newText);
+    }
+}
@@ -0,0 +1,31 @@
+package aa.race.messages;
+
+// Overflow policy: the new message is inserted & the oldest messages in the buffer get pushed out whole, each in O(1)
+// (this is what dropNewCharWhenBufferFull = false does)
+public class DropOldestOverflowPolicy implements OverflowPolicy {
+
+    public void append(Buffer buffer, String newText) {
+        // a message bigger than the whole buffer can never fit, so it is the one dropped
+        if (newText.length() > buffer.getMaxSize()) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+        // some messages already in the buffer will be dropped, oldest first
+        if (buffer.getFreeSpace() < newText.length()) {
+            int charPushedOut = 0;
+            int eventsPushedOut = 0;
+            int bytesPushedOut = 0;
+            while (buffer.getFreeSpace() < newText.length()) {
+                String oldest = buffer.removeOldest();
+                charPushedOut += oldest.length();
+                eventsPushedOut++;
+                bytesPushedOut += EventFormat.utf8Length(oldest);
+            }
+            Diagnostics.record("full - pushed out messages", eventsPushedOut);
+            Diagnostics.count("full - pushed out characters", charPushedOut);
+            Diagnostics.count("full - pushed out bytes", bytesPushedOut);
+        }
+        // whole message is inserted into buffer & life carries on
+        buffer.append(newText);
+    }
+}
@@ -0,0 +1,128 @@
+package aa.race.messages;
+
+import java.util.Collection;
+
+/*
+ * Helpers for the event record format produced by the Event Generator
+ * Format of a record: [timestamp]~[message]~  (tilde is used as separator)
+ * or, for a keyed record: [timestamp]~[key]:[message]~
+ */
+public class EventFormat {
+
+    public static final char SEPARATOR = '~';
+    public static final char KEY_SEPARATOR = ':';   // ends the key at the front of the message of a keyed record
+
+    private EventFormat() {
+    }
+
+    // Returns the index of the separator that ends the timestamp of the record starting at from, or -1 if there is none
+    public static int timestampEnd(CharSequence text, int from) {
+        for (int i = from; i < text.length(); i++)
+            if (text.charAt(i) == SEPARATOR)
+                return i;
+        return -1;
+    }
+
+    // Returns the index just past the record starting at from (i.e. past its second separator), or -1 if the record is incomplete
+    public static int recordEnd(CharSequence text, int from) {
+        int timestampEnd = timestampEnd(text, from);
+        if (timestampEnd < 0)
+            return -1;
+        int messageEnd = timestampEnd(text, timestampEnd + 1);
+        return (messageEnd < 0 ? -1 : messageEnd + 1);
+    }
+
+    // Returns the index at which the first record ending past minLength ends, i.e. how much to cut off the front of text,
+    // a run of whole records, to cut off at least minLength characters without splitting a record. text.length() if no such record ends
+    public static int wholeRecordsPrefix(CharSequence text, int minLength) {
+        int cut = 0;
+        while (cut < minLength) {
+            cut = recordEnd(text, cut);
+            if (cut < 0)
+                return text.length();
+        }
+        return cut;
+    }
+
+    // Returns the index at which the longest run of whole records at the front of text ends, that is at most maxEvents records
+    // & maxChars characters long, except that the first record is always taken. text.length() if text does not start with a whole record
+    public static int wholeRecordsWithin(CharSequence text, int maxEvents, int maxChars) {
+        int end = recordEnd(text, 0);
+        if (end < 0)
+            return text.length();
+        for (int noOfRecords = 1; noOfRecords < maxEvents && end < text.length(); noOfRecords++) {
+            int next = recordEnd(text, end);
+            if (next < 0 || next > maxChars)
+                break;
+            end = next;
+        }
+        return end;
+    }
+
+    // Adds the records of text, a run of whole records, to sink one by one & returns how many were added.
+    // Anything after the last whole record is added as one more entry
+    public static int addRecords(String text, Collection<? super String> sink) {
+        int noOfRecords = 0;
+        for (int start = 0; start < text.length(); noOfRecords++) {
+            int end = recordEnd(text, start);
+            if (end < 0)
+                end = text.length();
+            sink.add(text.substring(start, end));
+            start = end;
+        }
+        return noOfRecords;
+    }
+
+    // Number of records in text, a run of whole records
+    public static int countRecords(CharSequence text) {
+        int noOfSeparators = 0;
+        for (int i = 0; i < text.length(); i++)
+            if (text.charAt(i) == SEPARATOR)
+                noOfSeparators++;
+        return noOfSeparators / 2;
+    }
+
+    // Parses the timestamp at the front of a record. Throws NumberFormatException if the record is not in the expected format
+    public static long parseTimestamp(CharSequence record) {
+        int timestampEnd = timestampEnd(record, 0);
+        if (timestampEnd <= 0)
+            throw new NumberFormatException("no timestamp in record: " + record);
+        return Long.parseLong(record, 0, timestampEnd, 10);
+    }
+
+    // Returns the key of a keyed record ([timestamp]~[key]:[message]~), or null if the message has no key
+    public static String parseKey(CharSequence record) {
+        int timestampEnd = timestampEnd(record, 0);
+        if (timestampEnd < 0)
+            return null;
+        for (int i = timestampEnd + 1; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (c == KEY_SEPARATOR)
+                return (i == timestampEnd + 1 ? null : record.subSequence(timestampEnd + 1, i).toString());
+            if (c == SEPARATOR)
+                break;
+        }
+        return null;
+    }
+
+    // Number of bytes text takes up once encoded in UTF-8, worked out without encoding it
+    public static int utf8Length(CharSequence text) {
+        int length = text.length();
+        int noOfBytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    noOfBytes += 1;
+                } else if (!Character.isSurrogate(c)) {
+                    noOfBytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    noOfBytes += 2; // 4 bytes for the pair of chars
+                    i++;
+                }
+                // a lone surrogate is encoded as a single '?'
+            }
+        }
+        return noOfBytes;
+    }
+}
@@ -1,60 +1,200 @@
 package aa.race.messages;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import aa.race.arrival.ArrivalProcess;
+import aa.race.arrival.ConstantArrivalProcess;
 
 // This thread class is responsible for generating the events given the delay intervals, message buffer & message length of new messages
 // An event is manifested by the creation of a new message (of fixed length) & writing of that message to the message buffer.
 public class EventGenerator extends Thread {
 
     // The values for these private attributes will be sent in through the constructor
-    private ArrayList<Integer> delayIntervals;    // Array of delay intervals in seconds. for example: if the array is 3, 4, 1... , the first event will be fired, followed by a 3 sec pause, followed by a 2nd event, a 4 sec pause, the 3rd event, a 1 sec pause & so on...
+    private long[] delayIntervals;                // Array of delay intervals in msec. for example: if the array is 3000, 4000, 1000... , there is a 3 sec pause, then the first event is fired, then a 4 sec pause, the 2nd event, a 1 sec pause & so on...
     private int msgLength;                            // length of new messages
     private MessageBuffer msgBuffer;                // reference to message buffer object passed in through the constructor
+    private boolean latestOnly;                     // if true, every new message replaces the buffer contents instead of being appended
+    private int numKeys;                            // if > 0, every message starts with one of numKeys keys (k0: to k<numKeys-1>:), picked at random
+    private Random random;                          // picks the keys. Given by EventSource, so that scheduleSeed makes them repeatable too
+
+    // every message is built in the same arrays, so building one allocates nothing (see buildMessage). Handing it to the buffer does,
+    // except with a DirectMessageBuffer: the other buffers store Strings, so they make one String of every event
+    private char[] record;                          // the message being built
+    private char[] payload;                         // fillers, copied in after the timestamp (& key). Grown if an arrival process asks for longer messages
 
-    // Constructor
-    public EventGenerator(ArrayList<Integer> delayIntervals, MessageBuffer msgBuffer, int msgLength) {
+    // scheduled mode (see setArrivalProcess). arrivalProcess null --> the delayIntervals are used
+    private ArrivalProcess arrivalProcess;          // gives the time of every event
+    private long durationNanos;                     // no event is fired this long after the start or later
+    private long maxEvents;                         // events to fire at most
+    private long spinNanos;                         // the last part of every wait is spun instead of parked
+
+    // Constructor. delayIntervals are in msec
+    public EventGenerator(long[] delayIntervals, MessageBuffer msgBuffer, int msgLength, boolean latestOnly) {
         this.delayIntervals = delayIntervals;
         this.msgBuffer = msgBuffer;
         this.msgLength = msgLength;
+        this.latestOnly = latestOnly;
+        record = new char[0];
+        payload = new char[0];
+        makeRoom(12, msgLength);
+        setName("EventGenerator"); // callers are told apart by thread name in the lock statistics
+    }
+
+    // Makes every message a keyed one ([timestamp]~[key]:[message]~), with a key picked out of numKeys by random. 0 --> no keys.
+    // Must be called before the generator is started
+    public void setNumKeys(int numKeys, Random random) {
+        this.numKeys = numKeys;
+        this.random = random;
+    }
+
+    // Switches to high-rate mode: instead of sleeping the delayIntervals, noOfEvents events are fired eventsPerSecond apart
+    // on a fixed schedule of System.nanoTime deadlines. Must be called before the generator is started
+    public void setHighRate(double eventsPerSecond, long noOfEvents, long spinNanos) {
+        setArrivalProcess(new ConstantArrivalProcess(eventsPerSecond), Long.MAX_VALUE, noOfEvents, spinNanos);
+    }
+
+    // Switches to scheduled mode: instead of sleeping the delayIntervals, events are fired at the times arrivalProcess gives,
+    // on System.nanoTime deadlines, until durationNanos after the start (by the schedule or by the clock) or maxEvents events, whichever comes first.
+    // Must be called before the generator is started
+    public void setArrivalProcess(ArrivalProcess arrivalProcess, long durationNanos, long maxEvents, long spinNanos) {
+        this.arrivalProcess = arrivalProcess;
+        this.durationNanos = durationNanos;
+        this.maxEvents = maxEvents;
+        this.spinNanos = spinNanos;
     }
 
     // Run method. Fires events periodically & ends when all events are fired.
     public void run() {
+        if (arrivalProcess != null) {
+            runScheduled();
+            return;
+        }
+
         int pointer = 0;    // pointer used in delayIntervals array
 
         // repeat until all the events have been fired
-        while (pointer < delayIntervals.size()) {
-            // extract delay interval
-            int nextDelayInterval = delayIntervals.get(pointer++).intValue();
-
-            // delay for nextDelayInternal number of seconds
-            delay(nextDelayInterval * 1000); // remember that delay intervals are given in seconds. so multiply by 1000 before passing into the delay method
+        while (pointer < delayIntervals.length) {
+            // delay for the next delay interval (in msec)
+            delay(delayIntervals[pointer++]);
 
             // An event happens here
             Date rightNow = new Date();
             System.out.println("Event " + pointer + " fired at time " + rightNow);
             System.out.println("---");
 
-            // Create event message & append it to message buffer
-            msgBuffer.appendToBack(createNewMessage(rightNow, '~', msgLength, '*'));
+            // Create event message & append it to message buffer (or make it the only message in there)
+            fire(buildMessage(rightNow.getTime(), null, msgLength));
+        }
+        System.out.println("Exiting EventGenerator thread...");
+    }
+
+    // Scheduled mode. Every deadline is start + the time the arrival process gives: the deadlines are worked out from the start, not from
+    // the previous event, so a late event (a slow append, a GC pause) does not push the later ones back. Events that are overdue are fired
+    // straight away until the schedule is caught up. Nothing is printed per event, as printing would be slower than the rates aimed at
+    private void runScheduled() {
+        System.out.println(getName() + " firing events on a " + arrivalProcess.getClass().getSimpleName() + " schedule"
+                + (maxEvents < Long.MAX_VALUE ? ", " + maxEvents + " in all" : "")
+                + (durationNanos < Long.MAX_VALUE ? ", for " + durationNanos / 1000000 + " msec" : ""));
+        System.out.println("---");
+        long at = arrivalProcess.nextArrivalNanos(); // before the clock starts, as the first call may have to set up (e.g. open a trace)
+        long start = System.nanoTime();
+        long noOfEvents = 0;
+        long maxLateness = 0;
+        long totalLateness = 0;
+        while (noOfEvents < maxEvents && at < durationNanos) {
+            long deadline = start + at;
+            waitUntil(deadline);
+            long now = System.nanoTime();
+            // the schedule alone does not end the run if it is never waited for (a trace at speed 0) or the generator has fallen behind
+            if (now - start >= durationNanos)
+                break;
+            long lateness = now - deadline;
+            maxLateness = Math.max(maxLateness, lateness);
+            totalLateness += lateness;
+
+            int size = arrivalProcess.messageSize();
+            fire(buildMessage(System.currentTimeMillis(), arrivalProcess.key(), (size < 0 ? msgLength : size)));
+            noOfEvents++;
+            at = arrivalProcess.nextArrivalNanos();
         }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(getName() + " fired " + noOfEvents + " events in " + elapsed / 1000000 + " msec ("
+                + (elapsed == 0 ? 0 : Math.round(noOfEvents * 1e9 / elapsed)) + " events/sec). Lateness: mean "
+                + (noOfEvents == 0 ? 0 : totalLateness / noOfEvents) + " nsec, max " + maxLateness + " nsec");
         System.out.println("Exiting EventGenerator thread...");
     }
 
-    // Creates & returns a new message of the prescribed format
-    // Format of message: [timestamp]~[message]~  (tilde is used as separator). Whole length of message should be msgSize (including separators & timestamp)
-    private String createNewMessage(Date rightNow, char separator, int msgLength, char contentFiller) {
-        StringBuffer newMsg = new StringBuffer(((Long) rightNow.getTime()).toString());
-        newMsg.append(separator);
-        for (int i = 0; i < msgLength; i++)
-            newMsg.append(contentFiller);
-        newMsg.append(separator);
-        return newMsg.toString();
+    // Parks until spinNanos before deadline (parking is only accurate to tens of usec), then spins on System.nanoTime up to deadline
+    private void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > spinNanos)
+            LockSupport.parkNanos(remaining - spinNanos);
+        while (deadline - System.nanoTime() > 0)
+            Thread.onSpinWait();
+    }
+
+    // Appends the first length characters of record to the message buffer (or makes them the only message in there)
+    private void fire(int length) {
+        if (latestOnly)
+            msgBuffer.setMessageBufferText(record, 0, length);
+        else
+            msgBuffer.appendToBack(record, 0, length);
+    }
+
+    // Builds a new message of the prescribed format, length characters long (without timestamp & separators), in record & returns its length.
+    // key null --> a random one if numKeys > 0, else none
+    // Format of message: [timestamp]~[message]~  (tilde is used as separator), or [timestamp]~[key]:[message]~ when keyed. Whole length of message should be msgSize (including separators & timestamp)
+    // The digits are written straight into record & the rest is copied from payload, so nothing is allocated (unless the arrays have to grow)
+    private int buildMessage(long timestamp, CharSequence key, int length) {
+        makeRoom(key == null ? 12 : key.length() + 1, length);
+        int pos = putDigits(timestamp, record, 0);
+        record[pos++] = '~';
+        int contentStart = pos;
+        if (key != null) {
+            for (int i = 0; i < key.length(); i++)
+                record[pos++] = key.charAt(i);
+            record[pos++] = EventFormat.KEY_SEPARATOR;
+        } else if (numKeys > 0) {
+            record[pos++] = 'k';
+            pos = putDigits(random.nextInt(numKeys), record, pos);
+            record[pos++] = EventFormat.KEY_SEPARATOR; // the key counts towards msgLength
+        }
+        int noOfFillers = Math.max(0, length - (pos - contentStart)); // the key takes the place of fillers
+        System.arraycopy(payload, 0, record, pos, noOfFillers);
+        pos += noOfFillers;
+        record[pos++] = '~';
+        return pos;
+    }
+
+    // Grows record & payload, if needed, for a message of length characters with a key (& colon) of up to keyLength
+    private void makeRoom(int keyLength, int length) {
+        // timestamp (at most 19 digits), separator, key or fillers, separator
+        int needed = 19 + 1 + Math.max(keyLength, length) + 1;
+        if (record.length < needed)
+            record = new char[needed];
+        if (payload.length < length) {
+            payload = new char[length];
+            Arrays.fill(payload, '*');
+        }
+    }
+
+    // Writes the decimal digits of value (not negative) into chars at pos & returns the position after the last one
+    private static int putDigits(long value, char[] chars, int pos) {
+        int noOfDigits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10)
+            noOfDigits++;
+        for (int i = pos + noOfDigits - 1; i >= pos; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + noOfDigits;
     }
 
     // Pauses for a number of msec.
-    private void delay(int msec) {
+    private void delay(long msec) {
         try {
             Thread.sleep(msec);
         } catch (InterruptedException e) {
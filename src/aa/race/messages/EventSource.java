@@ -1,12 +1,15 @@
 package aa.race.messages;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Random;
 
+import aa.race.arrival.ArrivalProcess;
+import aa.race.wait.WaitStrategy;
+
 // This is the main class to run
 public class EventSource {
 
@@ -15,12 +18,56 @@ public class EventSource {
     private String mode;
     private int period;
     private double eventFrequency;
+    private String generatorMode;
+    private long scheduleResolutionMs;
+    private String scheduleSeed;
+    private long generatorSpinNanos;
+    private String arrivalProcess;
+    private Properties arrivalParameters;   // the arrival... properties are read by ArrivalProcess.named
     private int bufferSize;
     private int msgSize;
     private String ipOfEventListener;
     private int portOfServer;
     private boolean dropNewCharWhenBufferFull;
     private int numPullClients;
+    private int numEventGenerators;
+    private String bufferType;
+    private int maxRecordsInBuffer;
+    private long offHeapBufferBytes;
+    private int shardCount;
+    private boolean shardAffinity;
+    private String shardBy;
+    private long eventTtlMs;
+    private int numKeys;
+    private String overflowPolicy;
+    private long overflowBlockTimeout;
+    private String overflowSpillFile;
+    private String waitStrategy;
+    private long waitStrategyNanos;
+    private String deliveryMode;
+    private boolean versionedReplies;
+    private int maxReplyEvents;
+    private int maxReplyChars;
+    private long diagnosticsInterval;
+    private int diagnosticsMaxLines;
+    private boolean instrumentLocks;
+
+    // values allowed for the bufferType property
+    private static final String[] BUFFER_TYPES = {"unsynchronized", "reentrantLock", "readWriteLock", "tryLock", "tryLockReadWriteLock",
+            "stampedLock", "atomicReference", "ring", "spmc", "mpmc", "sharded", "compacted", "record", "broadcast", "direct"};
+    // the buffer types built on LockingMessageBuffer, which take any overflow policy
+    private static final String[] LOCKING_BUFFER_TYPES = {"unsynchronized", "reentrantLock", "readWriteLock", "tryLock", "tryLockReadWriteLock"};
+    // the buffer types that can evict expired events (eventTtlMs)
+    private static final String[] TTL_BUFFER_TYPES = {"unsynchronized", "reentrantLock", "readWriteLock", "tryLock", "tryLockReadWriteLock",
+            "sharded", "record"};
+    // values allowed for the shardBy property
+    private static final String[] SHARD_BY = {"producer", "key"};
+    // values allowed for the overflowPolicy property
+    private static final String[] OVERFLOW_POLICIES = {"dropNew", "dropOldest", "block", "spill"};
+    // values allowed for the generatorMode property
+    private static final String[] GENERATOR_MODES = {"seconds", "highRate"};
+    // values allowed for the deliveryMode property
+    private static final String[] DELIVERY_MODES = {"queue", "latest"};
 
     // main method. Life begins here.
     public static void main(String[] args) throws IOException {
@@ -34,17 +81,34 @@ public class EventSource {
 
     // Everything is done here
     public void startExperiment() {
-        // delayIntervals is an ArrayList of Integers representing the intervals (in seconds) between event fires
-        ArrayList<Integer> delayIntervals = new ArrayList<Integer>();
-        getDelayIntervals(delayIntervals, eventFrequency, period);
+        Diagnostics.configure(diagnosticsInterval, diagnosticsMaxLines);
+        if (instrumentLocks)
+            InstrumentedLock.enable(); // before the buffer creates its locks
 
         // create Message Buffer object
-        MessageBuffer msgBuffer = new MessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        MessageBuffer msgBuffer = createMessageBuffer();
+        msgBuffer.setEventTtl(eventTtlMs);
 
-        // This is the Event Generator which uses delayIntervals to fire events. Each event is basically a message of msgSize characters in length.
-        // Every time an event fires, the new message is inserted into the message buffer
-        EventGenerator eventGenerator = new EventGenerator(delayIntervals, msgBuffer, msgSize);
-        eventGenerator.start();
+        // These are the Event Generators which use delayIntervals to fire events. Each event is basically a message of msgSize characters in length.
+        // Every time an event fires, the new message is inserted into the message buffer.
+        // Each generator gets its own delayIntervals, so with numEventGenerators > 1 they fire independently of each other
+        // With a scheduleSeed, the same properties give the same schedules (& keys) every run
+        Random random = (scheduleSeed.isEmpty() ? new Random() : new Random(Long.parseLong(scheduleSeed)));
+        EventGenerator[] eventGenerators = new EventGenerator[numEventGenerators];
+        for (int i = 0; i < numEventGenerators; i++) {
+            // delayIntervals is an array of the intervals (in msec) between event fires
+            long[] delayIntervals = (isHighRate() || hasArrivalProcess() ? new long[0] : getDelayIntervals(eventFrequency, period, scheduleResolutionMs, random));
+            eventGenerators[i] = new EventGenerator(delayIntervals, msgBuffer, msgSize, isLatestDelivery());
+            if (hasArrivalProcess())
+                eventGenerators[i].setArrivalProcess(createArrivalProcess(new Random(random.nextLong())), period * 1000000000L, Long.MAX_VALUE, generatorSpinNanos);
+            else if (isHighRate())
+                eventGenerators[i].setHighRate(eventFrequency / 60, (long) (eventFrequency / 60 * period), generatorSpinNanos);
+            eventGenerators[i].setNumKeys(numKeys, new Random(random.nextLong()));
+            if (numEventGenerators > 1)
+                eventGenerators[i].setName("EventGenerator-" + i);
+        }
+        for (EventGenerator eventGenerator : eventGenerators)
+            eventGenerator.start();
 
         // push mode
         if (mode.equalsIgnoreCase("push")) {
@@ -64,39 +128,166 @@ public class EventSource {
             System.out.println("  INSTRUCTION: Run aa.race.messages.PullClient in separate DOS window.");
             System.out.println("---");
 
+            PullServer[] pullServers = new PullServer[numPullClients];
             for (int i = 0; i < numPullClients; i++) {
-                PullServer pullServer = new PullServer(msgBuffer, portOfServer + i, period);
-                pullServer.start();
+                pullServers[i] = new PullServer(msgBuffer, portOfServer + i, period, i, isLatestDelivery());
+                pullServers[i].setReplyLimits(maxReplyEvents, maxReplyChars);
+                pullServers[i].setVersionedReplies(versionedReplies);
+                pullServers[i].start();
                 // System.out.println("started on " +(portOfServer+i);
             }
+
+            if (instrumentLocks) {
+                // the experiment is over once every event generator is done & every pull server is done or out of time.
+                // A pull server whose client never connected or stopped asking would never be done, so it is only waited for until the period is up
+                long exptEndTime = System.currentTimeMillis() + period * 1000L;
+                try {
+                    for (EventGenerator eventGenerator : eventGenerators)
+                        eventGenerator.join();
+                    for (PullServer pullServer : pullServers)
+                        pullServer.join(Math.max(1, exptEndTime - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                InstrumentedLock.dump();
+            }
         }
     }
 
+    // -------------------------------------------------------------------
+    // Creates the Message Buffer implementation named by the bufferType property
+    private MessageBuffer createMessageBuffer() {
+        if (bufferType.equalsIgnoreCase("unsynchronized"))
+            return new UnsynchronizedMessageBuffer(bufferSize, createOverflowPolicy());
+        if (bufferType.equalsIgnoreCase("readWriteLock"))
+            return new ReadWriteLockMessageBuffer(bufferSize, createOverflowPolicy());
+        if (bufferType.equalsIgnoreCase("tryLock"))
+            return new TryLockMessageBuffer(bufferSize, createOverflowPolicy(), WaitStrategy.named(waitStrategy, waitStrategyNanos));
+        if (bufferType.equalsIgnoreCase("tryLockReadWriteLock"))
+            return new TryLockReadWriteLockMessageBuffer(bufferSize, createOverflowPolicy(), WaitStrategy.named(waitStrategy, waitStrategyNanos));
+        if (bufferType.equalsIgnoreCase("stampedLock"))
+            return new StampedLockMessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("atomicReference"))
+            return new AtomicReferenceMessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("ring"))
+            return new RingMessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("spmc"))
+            return new SpmcMessageBuffer(numPullClients, bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("mpmc"))
+            return new MpmcMessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("sharded"))
+            return new ShardedMessageBuffer(shardCount, numPullClients, shardAffinity, shardBy.equalsIgnoreCase("key"), bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("compacted"))
+            return new CompactedMessageBuffer(bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("record"))
+            return new RecordMessageBuffer(maxRecordsInBuffer, bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("broadcast"))
+            return new BroadcastMessageBuffer(numPullClients, maxRecordsInBuffer, bufferSize, dropNewCharWhenBufferFull);
+        if (bufferType.equalsIgnoreCase("direct"))
+            return new DirectMessageBuffer(offHeapBufferBytes, dropNewCharWhenBufferFull);
+        return new ReentrantLockMessageBuffer(bufferSize, createOverflowPolicy());
+    }
+
+    // true when the Event Generators fire on a nanoTime schedule instead of sleeping whole seconds
+    private boolean isHighRate() {
+        return generatorMode.equalsIgnoreCase("highRate");
+    }
+
+    // true when the Event Generators fire at the times of an arrival process instead of on the generatorMode schedule
+    private boolean hasArrivalProcess() {
+        return !arrivalProcess.isEmpty();
+    }
+
+    // returns true if events can carry a key: the event generators make them up (numKeys) or replay them from a trace
+    private boolean hasKeys() {
+        return (numKeys > 0 || arrivalProcess.equalsIgnoreCase("trace"));
+    }
+
+    // Creates the arrival process named by the arrivalProcess property, at a mean of eventFrequency events per 60 secs
+    private ArrivalProcess createArrivalProcess(Random random) {
+        return ArrivalProcess.named(arrivalProcess, eventFrequency / 60, arrivalParameters, period * 1000L, random);
+    }
+
+    // true when the Event Generator replaces the buffer contents & the Pull Servers only read them, instead of queueing & draining
+    private boolean isLatestDelivery() {
+        return deliveryMode.equalsIgnoreCase("latest");
+    }
+
+    // Creates the overflow policy named by the overflowPolicy property
+    private OverflowPolicy createOverflowPolicy() {
+        if (overflowPolicy.equalsIgnoreCase("block"))
+            return new BlockProducerOverflowPolicy(overflowBlockTimeout);
+        if (overflowPolicy.equalsIgnoreCase("spill")) {
+            try {
+                return new SpillToDiskOverflowPolicy(new File(overflowSpillFile));
+            } catch (IOException e) {
+                System.err.println("*** FATAL ERROR: " + e.getMessage());
+                System.err.println("*** LIKELY REASON: Ensure that overflowSpillFile in eventsource.properties names a writable file");
+                System.exit(1);
+            }
+        }
+        if (overflowPolicy.equalsIgnoreCase("dropOldest"))
+            return new DropOldestOverflowPolicy();
+        return new DropNewOverflowPolicy();
+    }
+
     // -------------------------------------------------------------------
     // This method calculates the delay intervals based on the experimental period & event frequency (i.e. how many events are to be fired within 60 secs)
-    // period is in seconds, not msec
-    private void getDelayIntervals(ArrayList<Integer> delayIntervals, double eventFrequency, int period) {
+    // period is in seconds, the intervals returned are in msec: noOfEvents + 1 distinct instants are drawn out of the period, at a resolution
+    // of resolutionMillis, & the intervals are the gaps between them (so the first event fires one gap after the start). O(n log n), with no boxing.
+    // Exits with an error if the period does not have enough distinct instants
+    private long[] getDelayIntervals(double eventFrequency, int period, long resolutionMillis, Random random) {
         int noOfEvents = (int) (eventFrequency / 60 * period);
         System.out.println("Number of events to be generated over period of " + period + " seconds: " + noOfEvents);
 
-        // randomly generate numbers within the period
-        ArrayList<Integer> temp = new ArrayList<Integer>();
-        Random r = new Random();
-        while (temp.size() <= noOfEvents) {
-            Integer rand = new Integer(r.nextInt(period));
-            if (!temp.contains(rand))
-                temp.add(new Integer(rand));
+        long noOfInstants = period * 1000L / resolutionMillis;
+        if (noOfEvents + 1L > noOfInstants) {
+            System.err.println("*** FATAL ERROR: " + noOfEvents + " events do not fit in " + period + " seconds at a resolution of " + resolutionMillis + " msec");
+            System.err.println("*** LIKELY REASON: Lower eventFrequency or scheduleResolutionMs, or raise period, in eventsource.properties");
+            System.exit(1);
+        }
+
+        // randomly generate distinct instants within the period, sorted
+        long[] instants = distinctSortedSample(noOfEvents + 1, noOfInstants, random);
+
+        // create the delay intervals
+        long[] delayIntervals = new long[noOfEvents];
+        for (int i = 0; i < noOfEvents; i++)
+            delayIntervals[i] = (instants[i + 1] - instants[i]) * resolutionMillis;
+        return delayIntervals;
+    }
+
+    // Returns k distinct numbers out of 0 .. n-1, sorted, each set of k equally likely. O(k log k)
+    private static long[] distinctSortedSample(int k, long n, Random random) {
+        if (k > n / 2) {
+            // most numbers are picked: pick the ones left out instead & walk 0 .. n-1 (n < 2k here) around them
+            long[] leftOut = distinctSortedSample((int) (n - k), n, random);
+            long[] sample = new long[k];
+            int noOfPicked = 0;
+            int l = 0;
+            for (long i = 0; i < n; i++) {
+                if (l < leftOut.length && leftOut[l] == i)
+                    l++;
+                else
+                    sample[noOfPicked++] = i;
+            }
+            return sample;
         }
-        Collections.sort(temp);
-
-        // create new ArrayList for delay intervals
-        delayIntervals.clear();
-        for (int i = 0; i < temp.size() - 1; i++) {
-            int smaller = temp.get(i).intValue();
-            int bigger = temp.get(i + 1).intValue();
-            delayIntervals.add(new Integer(bigger - smaller));
+
+        // draw, sort & drop duplicates, then draw again for as many as were dropped. As k <= n / 2, at most half of
+        // each round's draws can be duplicates, so the number of rounds is O(log k)
+        long[] sample = new long[k];
+        int noOfDistinct = 0;
+        while (noOfDistinct < k) {
+            for (int i = noOfDistinct; i < k; i++)
+                sample[i] = random.nextLong(n);
+            Arrays.sort(sample);
+            noOfDistinct = 0;
+            for (int i = 0; i < k; i++)
+                if (noOfDistinct == 0 || sample[i] != sample[noOfDistinct - 1])
+                    sample[noOfDistinct++] = sample[i];
         }
-        return;
+        return sample;
     }
 
     // -------------------------------------------------------------------
@@ -113,26 +304,166 @@ public class EventSource {
             }
             period = Integer.parseInt(properties.getProperty("period"));
             eventFrequency = Double.parseDouble(properties.getProperty("eventFrequency"));
-            if (eventFrequency > 60) {
-                System.out.println("*** FATAL ERROR: eventFrequency property in eventsource.properites should not be set to more than 60");
+            generatorMode = properties.getProperty("generatorMode", "seconds").trim();
+            if (!isOneOf(generatorMode, GENERATOR_MODES)) {
+                System.err.println("*** FATAL ERROR: generatorMode property in eventsource.properties must be set to one of " + String.join(", ", GENERATOR_MODES));
+                System.exit(1);
+            }
+            scheduleResolutionMs = Long.parseLong(properties.getProperty("scheduleResolutionMs", "1000").trim());
+            if (scheduleResolutionMs < 1) {
+                System.err.println("*** FATAL ERROR: scheduleResolutionMs property in eventsource.properties must be at least 1");
                 System.exit(1);
             }
+            scheduleSeed = properties.getProperty("scheduleSeed", "").trim();
+            if (!scheduleSeed.isEmpty())
+                Long.parseLong(scheduleSeed); // fails here, with the usual message, if it is not a number
+            generatorSpinNanos = Long.parseLong(properties.getProperty("generatorSpinNanos", "50000").trim());
+            arrivalProcess = properties.getProperty("arrivalProcess", "").trim();
+            arrivalParameters = properties;
+            if (!(eventFrequency > 0) && !arrivalProcess.equalsIgnoreCase("trace")) {
+                // every schedule but a trace replay is worked out from eventFrequency
+                System.err.println("*** FATAL ERROR: eventFrequency property in eventsource.properties must be above 0");
+                System.err.println("*** LIKELY REASON: Only a trace (arrivalProcess = trace) sets its own pace & ignores eventFrequency");
+                System.exit(1);
+            }
+            if (hasArrivalProcess())
+                createArrivalProcess(new Random()); // fails here, with the usual message, if arrivalProcess or one of its parameters is wrong
             bufferSize = Integer.parseInt(properties.getProperty("bufferSize"));
             msgSize = Integer.parseInt(properties.getProperty("msgSize"));
             ipOfEventListener = properties.getProperty("ipOfEventListener");
             portOfServer = Integer.parseInt(properties.getProperty("portOfServer"));
             dropNewCharWhenBufferFull = Boolean.parseBoolean(properties.getProperty("dropNewCharWhenBufferFull"));
             numPullClients = Integer.parseInt(properties.getProperty("numPullClients"));
+            numEventGenerators = Integer.parseInt(properties.getProperty("numEventGenerators", "1").trim());
+            if (numEventGenerators < 1) {
+                System.err.println("*** FATAL ERROR: numEventGenerators property in eventsource.properties must be at least 1");
+                System.exit(1);
+            }
+            bufferType = properties.getProperty("bufferType", "reentrantLock").trim();
+            if (!isOneOf(bufferType, BUFFER_TYPES)) {
+                System.err.println("*** FATAL ERROR: bufferType property in eventsource.properties must be set to one of " + String.join(", ", BUFFER_TYPES));
+                System.exit(1);
+            }
+            if (numEventGenerators > 1 && bufferType.equalsIgnoreCase("spmc")) {
+                System.err.println("*** FATAL ERROR: bufferType spmc only supports one event generator. Use mpmc (or any other bufferType) with numEventGenerators > 1");
+                System.exit(1);
+            }
+            // overflowPolicy defaults to whatever dropNewCharWhenBufferFull says
+            overflowPolicy = properties.getProperty("overflowPolicy", dropNewCharWhenBufferFull ? "dropNew" : "dropOldest").trim();
+            if (!isOneOf(overflowPolicy, OVERFLOW_POLICIES)) {
+                System.err.println("*** FATAL ERROR: overflowPolicy property in eventsource.properties must be set to one of " + String.join(", ", OVERFLOW_POLICIES));
+                System.exit(1);
+            }
+            if (!isOneOf(bufferType, LOCKING_BUFFER_TYPES)) {
+                // the other buffers only know the two drop policies
+                if (!(overflowPolicy.equalsIgnoreCase("dropNew") || overflowPolicy.equalsIgnoreCase("dropOldest"))) {
+                    System.err.println("*** FATAL ERROR: overflowPolicy " + overflowPolicy + " is only supported with bufferType " + String.join(", ", LOCKING_BUFFER_TYPES));
+                    System.exit(1);
+                }
+                dropNewCharWhenBufferFull = overflowPolicy.equalsIgnoreCase("dropNew");
+            }
+            deliveryMode = properties.getProperty("deliveryMode", "queue").trim();
+            if (!isOneOf(deliveryMode, DELIVERY_MODES)) {
+                System.err.println("*** FATAL ERROR: deliveryMode property in eventsource.properties must be set to one of " + String.join(", ", DELIVERY_MODES));
+                System.exit(1);
+            }
+            versionedReplies = Boolean.parseBoolean(properties.getProperty("versionedReplies", "false").trim());
+            if (versionedReplies && !(isLatestDelivery() && bufferType.equalsIgnoreCase("atomicReference"))) {
+                System.err.println("*** FATAL ERROR: versionedReplies is only supported with deliveryMode latest & bufferType atomicReference");
+                System.exit(1);
+            }
+            maxReplyEvents = Integer.parseInt(properties.getProperty("maxReplyEvents", "0").trim());
+            maxReplyChars = Integer.parseInt(properties.getProperty("maxReplyChars", "0").trim());
+            diagnosticsInterval = Long.parseLong(properties.getProperty("diagnosticsInterval", "1000").trim());
+            diagnosticsMaxLines = Integer.parseInt(properties.getProperty("diagnosticsMaxLines", "50").trim());
+            instrumentLocks = Boolean.parseBoolean(properties.getProperty("instrumentLocks", "false").trim());
+            waitStrategy = properties.getProperty("waitStrategy", "busySpin").trim();
+            waitStrategyNanos = Long.parseLong(properties.getProperty("waitStrategyNanos", "100000").trim());
+            WaitStrategy.named(waitStrategy, waitStrategyNanos); // fails here, with the usual message, if waitStrategy is unknown
+            overflowBlockTimeout = Long.parseLong(properties.getProperty("overflowBlockTimeout", "1000").trim());
+            overflowSpillFile = properties.getProperty("overflowSpillFile", "messagebuffer.spill").trim();
+            // every record is at least one byte, so bufferSize records can never be outgrown
+            maxRecordsInBuffer = Integer.parseInt(properties.getProperty("maxRecordsInBuffer", String.valueOf(bufferSize)).trim());
+            if (maxRecordsInBuffer < 1) {
+                System.err.println("*** FATAL ERROR: maxRecordsInBuffer property in eventsource.properties must be at least 1");
+                System.exit(1);
+            }
+            offHeapBufferBytes = Long.parseLong(properties.getProperty("offHeapBufferBytes", String.valueOf(bufferSize)).trim());
+            numKeys = Integer.parseInt(properties.getProperty("numKeys", "0").trim());
+            if (bufferType.equalsIgnoreCase("compacted") && !hasKeys()) {
+                System.err.println("*** FATAL ERROR: bufferType compacted needs keyed events: set numKeys above 0 or replay a trace (arrivalProcess = trace)");
+                System.err.println("*** LIKELY REASON: Without keys nothing is ever compacted & the buffer only fills up like a plain queue");
+                System.exit(1);
+            }
+            if (bufferType.equalsIgnoreCase("compacted") && numKeys == 0)
+                System.err.println("*** WARNING: bufferType compacted with numKeys = 0: only the events of the trace that have a key are compacted");
+            shardBy = properties.getProperty("shardBy", "producer").trim();
+            if (!isOneOf(shardBy, SHARD_BY)) {
+                System.err.println("*** FATAL ERROR: shardBy property in eventsource.properties must be set to one of " + String.join(", ", SHARD_BY));
+                System.exit(1);
+            }
+            // sharded by producer, a shard without an event generator of its own would stay empty
+            boolean shardByKey = shardBy.equalsIgnoreCase("key");
+            shardCount = Integer.parseInt(properties.getProperty("shardCount", String.valueOf(shardByKey ? 4 : Math.min(4, numEventGenerators))).trim());
+            if (shardCount < 1) {
+                System.err.println("*** FATAL ERROR: shardCount property in eventsource.properties must be at least 1");
+                System.exit(1);
+            }
+            if (bufferType.equalsIgnoreCase("sharded") && !shardByKey && shardCount > numEventGenerators) {
+                System.err.println("*** FATAL ERROR: shardCount (" + shardCount + ") must not be more than numEventGenerators (" + numEventGenerators + ") with shardBy producer");
+                System.err.println("*** LIKELY REASON: Each event generator appends to one shard only, so the other shards would stay empty. Use shardBy key to spread one generator's events");
+                System.exit(1);
+            }
+            if (bufferType.equalsIgnoreCase("sharded") && shardByKey && !hasKeys()) {
+                System.err.println("*** FATAL ERROR: shardBy key needs keyed events: set numKeys above 0 or replay a trace (arrivalProcess = trace)");
+                System.exit(1);
+            }
+            shardAffinity = Boolean.parseBoolean(properties.getProperty("shardAffinity", "false").trim());
+            eventTtlMs = Long.parseLong(properties.getProperty("eventTtlMs", "0").trim());
+            if (eventTtlMs > 0 && !isOneOf(bufferType, TTL_BUFFER_TYPES)) {
+                System.err.println("*** FATAL ERROR: eventTtlMs is only supported with bufferType " + String.join(", ", TTL_BUFFER_TYPES));
+                System.exit(1);
+            }
 
             System.out.println("Read the following attributes from the property file:");
             System.out.println("  Mode.....................: " + mode);
             System.out.println("  Period...................: " + period);
             System.out.println("  Event Frequency..........: " + eventFrequency);
+            System.out.println("  Generator Mode...........: " + generatorMode + (isHighRate() ? " (spin " + generatorSpinNanos + " nsec)"
+                    : " (resolution " + scheduleResolutionMs + " msec" + (scheduleSeed.isEmpty() ? "" : ", seed " + scheduleSeed) + ")"));
+            if (hasArrivalProcess())
+                System.out.println("  Arrival Process..........: " + arrivalProcess + (arrivalProcess.equalsIgnoreCase("trace")
+                        ? " (" + arrivalParameters.getProperty("arrivalTraceFile", "").trim() + " at " + arrivalParameters.getProperty("arrivalTraceSpeed", "1").trim() + "x)" : "")
+                        + " (spin " + generatorSpinNanos + " nsec)");
+            System.out.println("  Event Generators.........: " + numEventGenerators);
             System.out.println("  Buffer Size..............: " + bufferSize);
             System.out.println("  Message Size.............: " + msgSize);
             System.out.println("  IP of Event Listener.....: " + ipOfEventListener);
             System.out.println("  Port of Server...........: " + portOfServer);
             System.out.println("  DropNewCharWhenBufferFull: " + dropNewCharWhenBufferFull);
+            System.out.println("  Buffer Type..............: " + bufferType);
+            System.out.println("  Delivery Mode............: " + deliveryMode + (versionedReplies ? " (versioned replies)" : ""));
+            if (bufferType.toLowerCase().startsWith("trylock"))
+                System.out.println("  Wait Strategy............: " + waitStrategy + " (" + waitStrategyNanos + " nsec)");
+            System.out.println("  Overflow Policy..........: " + overflowPolicy);
+            System.out.println("  Diagnostics Interval.....: " + diagnosticsInterval + (diagnosticsInterval > 0 ? " (max " + diagnosticsMaxLines + " lines)" : ""));
+            System.out.println("  Instrument Locks.........: " + instrumentLocks);
+            if (numKeys > 0)
+                System.out.println("  Number of Keys...........: " + numKeys);
+            if (eventTtlMs > 0)
+                System.out.println("  Event TTL (msec).........: " + eventTtlMs);
+            if (maxReplyEvents > 0 || maxReplyChars > 0)
+                System.out.println("  Max Reply Events / Chars.: " + maxReplyEvents + " / " + maxReplyChars);
+            if (overflowPolicy.equalsIgnoreCase("block"))
+                System.out.println("  Overflow Block Timeout...: " + overflowBlockTimeout);
+            if (overflowPolicy.equalsIgnoreCase("spill"))
+                System.out.println("  Overflow Spill File......: " + overflowSpillFile);
+            if (bufferType.equalsIgnoreCase("record") || bufferType.equalsIgnoreCase("broadcast"))
+                System.out.println("  Max Records In Buffer....: " + maxRecordsInBuffer);
+            if (bufferType.equalsIgnoreCase("sharded"))
+                System.out.println("  Shard Count / By / Aff...: " + shardCount + " / " + shardBy + " / " + shardAffinity);
+            if (bufferType.equalsIgnoreCase("direct"))
+                System.out.println("  Off-heap Buffer Bytes....: " + offHeapBufferBytes);
             System.out.println("---");
         } catch (IOException e) {
             System.err.println("*** FATAL ERROR: " + e.getMessage());
@@ -144,6 +475,12 @@ public class EventSource {
             System.exit(1);
         }
     }
-}
-
 
+    // returns true if value is one of allowed (ignoring case)
+    private static boolean isOneOf(String value, String[] allowed) {
+        for (String a : allowed)
+            if (a.equalsIgnoreCase(value))
+                return true;
+        return false;
+    }
+}
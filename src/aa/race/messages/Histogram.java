@@ -0,0 +1,48 @@
+package aa.race.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// A histogram of non-negative values with power-of-2 buckets: bucket 0 holds 0, bucket b holds 2^(b-1) .. 2^b - 1.
+// Recording is lock-free & allocation-free, so it can be done while a lock is held. Percentiles are given as the upper end of their bucket
+class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(65);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        count.increment();
+        sum.add(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) ;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    // the smallest bucket upper end below which at least fraction of the values lie
+    long percentile(double fraction) {
+        long total = count.sum();
+        long seen = 0;
+        for (int b = 0; b < buckets.length(); b++) {
+            seen += buckets.get(b);
+            if (seen > 0 && seen >= fraction * total)
+                return (b == 0 ? 0 : Math.min(max.get(), (1L << b) - 1));
+        }
+        return max.get();
+    }
+
+    // e.g. "mean 120, p50 <= 127, p90 <= 255, p99 <= 4095, max 5210"
+    public String toString() {
+        long total = count.sum();
+        if (total == 0)
+            return "none";
+        return "mean " + sum.sum() / total + ", p50 <= " + percentile(0.5) + ", p90 <= " + percentile(0.9)
+                + ", p99 <= " + percentile(0.99) + ", max " + max.get();
+    }
+}
@@ -0,0 +1,293 @@
+package aa.race.messages;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * Lock wrapper that measures contention, broken down by caller (the name of the calling thread, e.g. EventGenerator or PullServer-0):
+ * how long each acquisition waited, how long the lock was then held, how many tryLock attempts failed & how many threads were already
+ * waiting when a thread started to wait. A thread that keeps retrying tryLock (as TryLock does) counts as waiting from its first failed attempt.
+ * Reentrant acquisitions are not counted separately; the hold time runs from the outermost lock to the outermost unlock,
+ * less any time spent in Condition.await.
+ * Buffers get their locks through wrap, which only instruments them once enable has been called (instrumentLocks = true in eventsource.properties)
+ */
+public class InstrumentedLock implements Lock {
+
+    // the statistics of one caller of one lock
+    private static class CallerStats {
+        final LongAdder noOfAcquisitions = new LongAdder();
+        final LongAdder noOfContended = new LongAdder();      // acquisitions that had to wait
+        final LongAdder noOfFailedTryLocks = new LongAdder();
+        final Histogram waitNanos = new Histogram();
+        final Histogram holdNanos = new Histogram();
+        final Histogram queueLength = new Histogram();        // threads already waiting when this one started to
+    }
+
+    // what one thread is doing with one lock
+    private static class ThreadState {
+        CallerStats stats;
+        int depth;          // no of times this thread holds the lock
+        long heldSince;     // nanoTime of the outermost acquisition
+        long waitingSince;  // nanoTime of the first failed tryLock of the current acquisition, 0 if none
+        int queuedOnArrival;
+    }
+
+    private static volatile boolean enabled;
+    private static volatile boolean dumped;
+    private static final CopyOnWriteArrayList<InstrumentedLock> allLocks = new CopyOnWriteArrayList<InstrumentedLock>();
+
+    private final String name;
+    private final Lock lock;
+    private final AtomicInteger noOfWaiting = new AtomicInteger();  // threads currently waiting for the lock
+    private final ConcurrentHashMap<String, CallerStats> callers = new ConcurrentHashMap<String, CallerStats>();
+    private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+
+    private InstrumentedLock(String name, Lock lock) {
+        this.name = name;
+        this.lock = lock;
+    }
+
+    // From now on, wrap instruments the locks it is given
+    public static void enable() {
+        enabled = true;
+        // the statistics are printed even if the experiment is cut short, as long as dump has not printed them already
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (!dumped)
+                dump();
+        }));
+    }
+
+    // Returns lock instrumented under name, or lock itself if instrumentation is not enabled
+    public static Lock wrap(String name, Lock lock) {
+        if (!enabled)
+            return lock;
+        InstrumentedLock instrumented = new InstrumentedLock(name, lock);
+        allLocks.add(instrumented);
+        return instrumented;
+    }
+
+    // Prints the statistics of every instrumented lock to stdout
+    public static void dump() {
+        dumped = true;
+        StringBuilder out = new StringBuilder();
+        out.append("Lock statistics at ").append(new Date()).append(" (times in nsec):\n");
+        for (InstrumentedLock instrumented : allLocks) {
+            out.append(instrumented.name).append('\n');
+            for (Map.Entry<String, CallerStats> e : new TreeMap<String, CallerStats>(instrumented.callers).entrySet()) {
+                CallerStats stats = e.getValue();
+                out.append("  ").append(e.getKey()).append(": ").append(stats.noOfAcquisitions.sum()).append(" acquisitions, ")
+                        .append(stats.noOfContended.sum()).append(" contended, ")
+                        .append(stats.noOfFailedTryLocks.sum()).append(" failed tryLocks\n");
+                out.append("    wait.........: ").append(stats.waitNanos).append('\n');
+                out.append("    hold.........: ").append(stats.holdNanos).append('\n');
+                out.append("    queue length.: ").append(stats.queueLength).append('\n');
+            }
+        }
+        out.append("---");
+        System.out.println(out);
+    }
+
+    public void lock() {
+        ThreadState state = state();
+        if (state.depth > 0) {
+            lock.lock(); // reentrant, cannot have to wait
+            acquired(state, 0);
+            return;
+        }
+        if (lock.tryLock()) {
+            acquired(state, 0);
+            return;
+        }
+        startWaiting(state);
+        lock.lock();
+        acquired(state, System.nanoTime() - state.waitingSince);
+    }
+
+    public void lockInterruptibly() throws InterruptedException {
+        ThreadState state = state();
+        if (state.depth > 0) {
+            lock.lockInterruptibly();
+            acquired(state, 0);
+            return;
+        }
+        if (lock.tryLock()) {
+            acquired(state, 0);
+            return;
+        }
+        startWaiting(state);
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            stopWaiting(state);
+            throw e;
+        }
+        acquired(state, System.nanoTime() - state.waitingSince);
+    }
+
+    // A failed attempt starts a wait that only ends when a later attempt succeeds, so callers are expected to retry until they get the lock
+    public boolean tryLock() {
+        ThreadState state = state();
+        if (lock.tryLock()) {
+            acquired(state, state.waitingSince == 0 ? 0 : System.nanoTime() - state.waitingSince);
+            return true;
+        }
+        state.stats.noOfFailedTryLocks.increment();
+        if (state.waitingSince == 0)
+            startWaiting(state);
+        return false;
+    }
+
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        ThreadState state = state();
+        if (lock.tryLock()) {
+            acquired(state, 0);
+            return true;
+        }
+        startWaiting(state);
+        boolean locked;
+        try {
+            locked = lock.tryLock(time, unit);
+        } catch (InterruptedException e) {
+            stopWaiting(state);
+            throw e;
+        }
+        if (locked) {
+            acquired(state, System.nanoTime() - state.waitingSince);
+        } else {
+            state.stats.noOfFailedTryLocks.increment();
+            stopWaiting(state);
+        }
+        return locked;
+    }
+
+    public void unlock() {
+        ThreadState state = state();
+        if (--state.depth == 0)
+            state.stats.holdNanos.record(System.nanoTime() - state.heldSince);
+        lock.unlock();
+    }
+
+    public Condition newCondition() {
+        return new InstrumentedCondition(lock.newCondition());
+    }
+
+    private ThreadState state() {
+        ThreadState state = threadState.get();
+        if (state.stats == null)
+            state.stats = callers.computeIfAbsent(Thread.currentThread().getName(), caller -> new CallerStats());
+        return state;
+    }
+
+    private void startWaiting(ThreadState state) {
+        state.waitingSince = System.nanoTime();
+        state.queuedOnArrival = noOfWaiting.getAndIncrement();
+    }
+
+    private void stopWaiting(ThreadState state) {
+        if (state.waitingSince != 0) {
+            noOfWaiting.decrementAndGet();
+            state.waitingSince = 0;
+        }
+    }
+
+    private void acquired(ThreadState state, long waitNanos) {
+        if (state.depth++ > 0)
+            return; // reentrant
+        CallerStats stats = state.stats;
+        stats.noOfAcquisitions.increment();
+        stats.waitNanos.record(waitNanos);
+        if (state.waitingSince != 0) {
+            stats.noOfContended.increment();
+            stats.queueLength.record(state.queuedOnArrival);
+            stopWaiting(state);
+        } else {
+            stats.queueLength.record(0);
+        }
+        state.heldSince = System.nanoTime();
+    }
+
+    // await releases the lock, so the hold time is stopped while waiting & restarted once the lock is held again
+    private class InstrumentedCondition implements Condition {
+
+        private final Condition condition;
+
+        InstrumentedCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        private int release() {
+            ThreadState state = state();
+            int depth = state.depth;
+            state.stats.holdNanos.record(System.nanoTime() - state.heldSince);
+            state.depth = 0;
+            return depth;
+        }
+
+        private void reacquired(int depth) {
+            ThreadState state = state();
+            state.depth = depth;
+            state.heldSince = System.nanoTime();
+        }
+
+        public void await() throws InterruptedException {
+            int depth = release();
+            try {
+                condition.await();
+            } finally {
+                reacquired(depth);
+            }
+        }
+
+        public void awaitUninterruptibly() {
+            int depth = release();
+            try {
+                condition.awaitUninterruptibly();
+            } finally {
+                reacquired(depth);
+            }
+        }
+
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            int depth = release();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                reacquired(depth);
+            }
+        }
+
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            int depth = release();
+            try {
+                return condition.await(time, unit);
+            } finally {
+                reacquired(depth);
+            }
+        }
+
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            int depth = release();
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                reacquired(depth);
+            }
+        }
+
+        public void signal() {
+            condition.signal();
+        }
+
+        public void signalAll() {
+            condition.signalAll();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package aa.race.messages;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/*
+ * Message Buffer class
+ * represents the Message Buffer to which the Event Generator will be "writing" to
+ * A circular queue of the appended messages guarded by a pair of locks: getWholeMsg takes the read lock, everything else the write lock.
+ * The subclasses only differ in the locks they pass in (ReentrantLock, ReentrantReadWriteLock, tryLock loops or no locking at all)
+ */
+public class LockingMessageBuffer implements MessageBuffer {
+
+    private ArrayDeque<String> msg; // the actual message being encapsulated, one entry per appended message (oldest first)
+    private int msgLength;    // total number of characters held by msg
+    private int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private OverflowPolicy overflowPolicy; // decides what happens to new characters when the buffer is full
+    private long eventTtl;    // msec an event may stay in the buffer, judged by its timestamp. 0 --> forever
+
+    // Self added
+    private Lock readLock;    // taken by getWholeMsg
+    private Lock writeLock;   // taken by everything else. May be the same lock as readLock
+    private Condition notFull;  // signalled whenever messages are taken out of the buffer
+    private Condition notEmpty; // signalled whenever a message is appended
+    private OverflowPolicy.Buffer policyView = new PolicyView();
+
+    // Constructor. initializes instance variables
+    // writeLock must support newCondition
+    protected LockingMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, Lock readLock, Lock writeLock) {
+        msg = new ArrayDeque<String>();
+        this.maxMsgSize = maxMsgSize;
+        this.overflowPolicy = overflowPolicy;
+        this.readLock = readLock;
+        this.writeLock = writeLock;
+        notFull = writeLock.newCondition();
+        notEmpty = writeLock.newCondition();
+    }
+
+    // the overflow policy for the old dropNewCharWhenBufferFull flag
+    protected static OverflowPolicy overflowPolicyFor(boolean dropNewCharWhenBufferFull) {
+        return (dropNewCharWhenBufferFull ? new DropNewOverflowPolicy() : new DropOldestOverflowPolicy());
+    }
+
+    // Append a String to the back of the encapsulated message
+    // Note that if the message buffer size is breached, the overflow policy decides what is dropped (discarded), waited for or spilled
+    public void appendToBack(String newText) {
+        writeLock.lock();
+        try {
+            // we need to lock even before checking for room because what if 'msg' was cleared right after the free space
+            // is worked out? That would make things inaccurate and we discard unnecessarily.
+            evictExpired(); // expired events make room before anything fresh is dropped
+            overflowPolicy.append(policyView, newText);
+        } finally {
+            writeLock.unlock();
+        }
+
+    }
+
+    // Replaces the whole contents of the buffer with newText, in one go (used when only the latest message is wanted)
+    public void setMessageBufferText(String newText) {
+        writeLock.lock();
+        try {
+            msg.clear();
+            msgLength = 0;
+            notFull.signalAll();
+            overflowPolicy.append(policyView, newText);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        writeLock.lock();
+        try {
+            msg.clear();
+            msgLength = 0;
+            notFull.signalAll();
+            overflowPolicy.onDrained(policyView);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        readLock.lock();
+        try {
+            return (msgLength == 0 ? null : join());
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    public String getWholeMsgAndClear() {
+        writeLock.lock();
+        try {
+            evictExpired();
+            if (msgLength == 0) {
+                return null;
+            }
+            String temp = join();
+
+            Diagnostics.record("returned characters", temp.length());
+            clear();
+
+            return temp;
+
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Similar to getWholeMsgAndClear, except that when the buffer is empty it waits up to timeoutMillis for appendToBack to signal new messages
+    public String getWholeMsgAndClear(int consumerId, long timeoutMillis) {
+        writeLock.lock();
+        try {
+            awaitNotEmpty(timeoutMillis);
+            return getWholeMsgAndClear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Moves whole messages into sink without concatenating them, so the lock is only held for as long as it takes to move the references
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        writeLock.lock();
+        try {
+            evictExpired();
+            int noOfEventsMoved = 0;
+            int noOfCharMoved = 0;
+            while (noOfEventsMoved < maxEvents && !msg.isEmpty()) {
+                String text = msg.peekFirst();
+                if (noOfEventsMoved > 0 && noOfCharMoved + text.length() > maxChars)
+                    break;
+                sink.add(msg.pollFirst());
+                msgLength -= text.length();
+                noOfCharMoved += text.length();
+                noOfEventsMoved++;
+            }
+            if (noOfEventsMoved > 0) {
+                Diagnostics.record("drained messages", noOfEventsMoved);
+                notFull.signalAll();
+                overflowPolicy.onDrained(policyView);
+            }
+            // a capped drain leaves events behind: pass the signal on, so another waiting reader does not sleep its whole timeout
+            if (msgLength > 0)
+                notEmpty.signal();
+            return noOfEventsMoved;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Similar to drainTo, except that when the buffer is empty it waits up to timeoutMillis for appendToBack to signal new messages
+    public int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars, long timeoutMillis) {
+        writeLock.lock();
+        try {
+            awaitNotEmpty(timeoutMillis);
+            return drainTo(sink, maxEvents, maxChars);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void setEventTtl(long ttlMillis) {
+        eventTtl = ttlMillis;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        // this method is not used in problem 1 and 2
+        String temp = getWholeMsg();
+        System.out.println("Message Buffer: " + (temp == null ? "" : temp));
+        System.out.println("Message Buffer contains " + msgLength + " characters.");
+    }
+
+    // Returns true if buffer is empty (i.e. length is zero), returns false otherwise
+    public boolean isEmpty() {
+        // this method is not used in problem 1 and 2.
+        return (msgLength == 0);
+    }
+
+    // Waits up to timeoutMillis for the buffer to hold something. Caller must hold the write lock
+    private void awaitNotEmpty(long timeoutMillis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (msgLength == 0 && nanos > 0) {
+            try {
+                nanos = notEmpty.awaitNanos(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // give up waiting but keep the interrupt for the caller
+                break;
+            }
+        }
+    }
+
+    // Takes the expired events off the front of the queue. Caller must hold the write lock
+    private void evictExpired() {
+        if (eventTtl <= 0 || msg.isEmpty())
+            return;
+        long oldestAllowed = System.currentTimeMillis() - eventTtl;
+        int noOfEventsExpired = 0;
+        int noOfCharExpired = 0;
+        while (!msg.isEmpty() && isOlderThan(msg.peekFirst(), oldestAllowed)) {
+            String expired = msg.pollFirst();
+            msgLength -= expired.length();
+            noOfCharExpired += expired.length();
+            noOfEventsExpired++;
+        }
+        if (noOfEventsExpired > 0) {
+            Diagnostics.record("expired - evicted messages", noOfEventsExpired);
+            Diagnostics.count("expired - evicted characters", noOfCharExpired);
+            notFull.signalAll();
+            overflowPolicy.onDrained(policyView);
+        }
+    }
+
+    // true if text starts with a timestamp older than oldestAllowed. Text without a timestamp (e.g. cut short by the overflow policy) never expires
+    private static boolean isOlderThan(String text, long oldestAllowed) {
+        try {
+            return EventFormat.parseTimestamp(text) < oldestAllowed;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Concatenates the messages held, oldest first. Caller must hold the lock
+    private String join() {
+        StringBuilder builder = new StringBuilder(msgLength);
+        for (String text : msg)
+            builder.append(text);
+        return builder.toString();
+    }
+
+    // The buffer as seen by its overflow policy. Every method is called with the lock held
+    private class PolicyView implements OverflowPolicy.Buffer {
+
+        public int getMaxSize() {
+            return maxMsgSize;
+        }
+
+        public int getFreeSpace() {
+            return maxMsgSize - msgLength;
+        }
+
+        public void append(String text) {
+            msg.addLast(text);
+            msgLength += text.length();
+            notEmpty.signal(); // one waiting reader is woken up. If it leaves events behind (a capped drainTo), it wakes up the next
+        }
+
+        public String removeOldest() {
+            String oldest = msg.pollFirst();
+            if (oldest != null)
+                msgLength -= oldest.length();
+            return oldest;
+        }
+
+        public boolean awaitFreeSpace(int noOfChar, long timeoutNanos) throws InterruptedException {
+            while (maxMsgSize - msgLength < noOfChar) {
+                if (timeoutNanos <= 0)
+                    return false;
+                timeoutNanos = notFull.awaitNanos(timeoutNanos);
+            }
+            return true;
+        }
+    }
+}
@@ -1,138 +1,112 @@
 package aa.race.messages;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import aa.race.wait.BackoffWaitStrategy;
+import aa.race.wait.WaitStrategy;
 
 /*
- * Message Buffer class
- * represents the Message Buffer to which the Event Generator will be "writing" to
+ * Message Buffer interface
+ * represents the Message Buffer to which the Event Generator will be "writing" to & the Pull Servers will be reading from
+ * The implementation used in an experiment is chosen with the bufferType property in eventsource.properties
  */
-public class MessageBuffer {
-
-    private StringBuffer msg; // the actual message being encapsulated
-    private int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
-    private int noOfDroppedCharSoFar;  // a running count of the number of characters which have been discarded because the buffer is full
-    private boolean dropNewCharWhenBufferFull; // determines if new characters will push out old characters if an insert is attempted when the buffer is full
-
-    // Self added
-    private Lock reentrantLock = new ReentrantLock();
-
-    // Constructor. initializes instance variables
-    public MessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
-        msg = new StringBuffer("");
-        noOfDroppedCharSoFar = 0;
-        this.maxMsgSize = maxMsgSize;
-        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
-    }
+public interface MessageBuffer {
+
+    // How the long-poll defaults below wait between two looks at the buffer: parks from 10 usec, doubling up to 1 msec
+    WaitStrategy LONG_POLL_BACKOFF = new BackoffWaitStrategy(0, 10000, 1000000);
 
     // Append a String to the back of the encapsulated message
-    // Note that if the message buffer size is breached, characters will be dropped (discarded)
-    // If dropNewCharWhenBufferFull is true, new characters will be dropped
-    // If dropNewCharWhenBufferFull is false, the oldest characters will be dropped & new characters "pushed in"
-    public void appendToBack(String newText) {
-        reentrantLock.lock();
-        try {
-            // we need to lock even before msg.append(..) because what if 'msg' was cleared right after maxNoOfNewCharToAppend
-            // is assigned a value below? That would make things inaccurate and we discard unnecessarily.
-            int maxNoOfNewCharToAppend = maxMsgSize - msg.length();
-
-            // dropNewCharWhenBufferFull is true
-            if (dropNewCharWhenBufferFull) {
-                // buffer is full - whole message dropped
-                if (maxNoOfNewCharToAppend <= 0) {
-                    noOfDroppedCharSoFar += newText.length();
-                    System.out.println("Message Buffer is full - dropping whole message of length: " + newText.length());
-                    System.out.println("Message Buffer: total number of dropped characters so far: " + noOfDroppedCharSoFar);
-                    System.out.println("---");
-                    return;
-                }
-                // part of new msg dropped
-                if (maxNoOfNewCharToAppend < newText.length()) {
-                    String charToAppend = newText.substring(0, maxNoOfNewCharToAppend);
-                    msg.append(charToAppend);
-                    int noOfCharToDrop = newText.length() - maxNoOfNewCharToAppend;
-                    noOfDroppedCharSoFar += noOfCharToDrop;
-                    System.out.println("Message Buffer is full - dropping last " + noOfCharToDrop + " characters in new message");
-                    System.out.println("Message Buffer: total number of dropped characters so far: " + noOfDroppedCharSoFar);
-                    System.out.println("---");
-                    return;
-                }
-                // whole message is inserted into buffer
-                msg.append(newText);
-                return;
-            }
-
-            // dropNewCharWhenBufferFull is false.
-            // We are going to ignore this since the default is true and I'm not changing it to false.
-            if (!dropNewCharWhenBufferFull) {
-                msg.append(newText);
-                // some characters already in the buffer will be dropped
-                if (maxNoOfNewCharToAppend < newText.length()) {
-                    int charToCutFrTheFront = msg.length() - maxMsgSize;
-                    noOfDroppedCharSoFar += charToCutFrTheFront;
-                    System.out.println("Message Buffer is full - pushing out " + charToCutFrTheFront + " characters already in the buffer.");
-                    System.out.println("Message Buffer: total number of dropped characters so far: " + noOfDroppedCharSoFar);
-                    System.out.println("---");
-
-                    String newMsg = msg.substring(charToCutFrTheFront, msg.length());
-                    msg = new StringBuffer(newMsg);
-                    return;
-                }
-                // Message buffer size is not breached: whole message is inserted into buffer & life carries on
-                msg.append(newText);
-            }
-        } finally {
-            reentrantLock.unlock();
-        }
+    // Note that if the message buffer size is breached, whole messages will be dropped (discarded): a message is never stored cut short
+    void appendToBack(String newText);
+
+    // Same as appendToBack(String), for the length characters of text starting at offset. text is the caller's to reuse as soon as this returns.
+    // This default makes a String of it, as every buffer that stores Strings (all but DirectMessageBuffer) needs an immutable copy anyway:
+    // only DirectMessageBuffer overrides it & takes an event without allocating, by encoding the characters straight into its storage
+    default void appendToBack(char[] text, int offset, int length) {
+        appendToBack(new String(text, offset, length));
+    }
 
+    // Replaces the whole contents of the buffer with newText (used with deliveryMode = latest, when only the latest message is wanted)
+    // This default is not atomic: a reader may find the buffer empty in between. The lock-based buffers override it to do both in one go
+    default void setMessageBufferText(String newText) {
+        clear();
+        appendToBack(newText);
     }
 
-    // Erase everything in the buffer
-    public void clear() {
-        reentrantLock.lock();
-        try {
-            msg.setLength(0);
-        } finally {
-            reentrantLock.unlock();
-        }
+    // Same as setMessageBufferText(String), for the length characters of text starting at offset, the same way as appendToBack(char[], int, int):
+    // this default makes a String of it, & only DirectMessageBuffer overrides it
+    default void setMessageBufferText(char[] text, int offset, int length) {
+        setMessageBufferText(new String(text, offset, length));
     }
 
+    // Erase everything in the buffer
+    void clear();
+
     // Return the contents of the buffer as a String or null if there is nothing inside
-    public String getWholeMsg() {
-        // this method is not used in problem 1
-        return (msg.length() == 0 ? null : msg.toString());
-    }
+    String getWholeMsg();
 
     // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
-    public String getWholeMsgAndClear() {
-        reentrantLock.lock();
-        try {
-            String temp = msg.toString();
+    String getWholeMsgAndClear();
 
-            if (temp.length() == 0) {
-                return null;
-            }
+    // Same as getWholeMsgAndClear, on behalf of one consumer (numbered from 0). Buffers that keep a read cursor per consumer
+    // (e.g. BroadcastMessageBuffer) only "clear" what this consumer has seen; all others ignore consumerId
+    default String getWholeMsgAndClear(int consumerId) {
+        return getWholeMsgAndClear();
+    }
 
-            System.out.println("returning: " + temp + " then clearing");
-            clear();
+    // Long-poll version of getWholeMsgAndClear(consumerId): if the buffer is empty, waits up to timeoutMillis for a message to be appended
+    // Returns null if nothing arrived in time. The LockingMessageBuffers wait on a condition; this default, for the others,
+    // looks again & again, backing off (LONG_POLL_BACKOFF) in between, so a message is noticed within about a msec
+    default String getWholeMsgAndClear(int consumerId, long timeoutMillis) {
+        String text = getWholeMsgAndClear(consumerId);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int attempt = 0; text == null && deadline - System.nanoTime() > 0; attempt++) {
+            LONG_POLL_BACKOFF.idle(attempt);
+            text = getWholeMsgAndClear(consumerId);
+        }
+        return text;
+    }
+
+    // Moves up to maxEvents events (whole appended messages), oldest first, from the buffer into sink, & returns how many were moved.
+    // Stops before the event that would take the total past maxChars, except that the first event is always moved,
+    // so an event longer than maxChars cannot hold up the buffer. Buffers that only know the UTF-8 size of their events count that instead,
+    // which is never less. Events are added to sink as they are: concatenating them is left to the caller, outside the buffer's lock.
+    // This default, for a buffer that cannot tell its events apart, moves everything as one event; every buffer of this package overrides it
+    default int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        String temp = getWholeMsgAndClear();
+        if (temp == null)
+            return 0;
+        sink.add(temp);
+        return 1;
+    }
 
-            return temp;
+    // Same as drainTo(sink, maxEvents, maxChars), on behalf of one consumer (see getWholeMsgAndClear(consumerId))
+    default int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars) {
+        return drainTo(sink, maxEvents, maxChars);
+    }
 
-        } finally {
-            reentrantLock.unlock();
+    // Long-poll version of drainTo(consumerId, sink, maxEvents, maxChars): if the buffer is empty, waits up to timeoutMillis for a message to be appended,
+    // the same way as getWholeMsgAndClear(consumerId, timeoutMillis)
+    default int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars, long timeoutMillis) {
+        int noOfEventsMoved = drainTo(consumerId, sink, maxEvents, maxChars);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int attempt = 0; noOfEventsMoved == 0 && deadline - System.nanoTime() > 0; attempt++) {
+            LONG_POLL_BACKOFF.idle(attempt);
+            noOfEventsMoved = drainTo(consumerId, sink, maxEvents, maxChars);
         }
+        return noOfEventsMoved;
     }
 
-    // Show the contents of the buffer to stdout
-    public void print() {
-        // this method is not used in problem 1 and 2
-        System.out.println("Message Buffer: " + msg);
-        System.out.println("Message Buffer contains " + msg.length() + " characters.");
+    // Events whose timestamp is more than ttlMillis old are evicted instead of being handed to a Pull Server. 0 --> events never expire.
+    // Eviction is lazy: it happens while the buffer is appended to or drained anyway, oldest first, & stops at the first event still fresh.
+    // Must be called before the buffer is used. Buffers that cannot tell their events apart ignore it
+    default void setEventTtl(long ttlMillis) {
     }
 
+    // Show the contents of the buffer to stdout
+    void print();
+
     // Returns true if buffer is empty (i.e. length is zero), returns false otherwise
-    public boolean isEmpty() {
-        // this method is not used in problem 1 and 2.
-        return (msg.length() == 0);
-    }
+    boolean isEmpty();
 }
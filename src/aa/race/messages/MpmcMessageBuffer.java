@@ -0,0 +1,171 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Multi-producer / multi-consumer Message Buffer
+ * For several Event Generators appending at once: a lock-free ConcurrentLinkedQueue of events plus a character budget.
+ * Producers never wait for each other or for the Pull Servers. The budget is handed out to each producer in chunks (its credit), so
+ * most appends are one CAS on the queue's tail & touch no shared counter; a producer only goes back to the shared pool when its credit
+ * runs out. Characters taken out by the Pull Servers are given back through a LongAdder, so they do not share a cache line either.
+ * Events from one producer come out in the order that producer appended them.
+ * Events are stored or dropped whole. Unlike the ring, there is no fixed number of slots: only the character budget bounds the buffer.
+ */
+public class MpmcMessageBuffer implements MessageBuffer {
+
+    private static final int CREDIT_SHARE = 64; // a producer takes at least 1/CREDIT_SHARE of the budget at a time
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+    // characters held by the queue or by the producers' credit = noOfCharGranted - noOfCharFreed. Both only ever go up, so a sum()
+    // that misses a concurrent add only makes the buffer look fuller than it is: the budget is never overdrawn because of it
+    private final AtomicLong noOfCharGranted = new AtomicLong();  // characters ever handed out to producers as credit
+    private final LongAdder noOfCharFreed = new LongAdder();      // characters ever taken out of the queue (read, drained or pushed out)
+    private final ThreadLocal<Credit> credit = ThreadLocal.withInitial(Credit::new);
+
+    private final int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached (for long)
+    private final int creditChunk;  // least amount of credit a producer takes from the pool at a time
+    private final boolean dropNewCharWhenBufferFull; // determines if new events will push out old events if an insert is attempted when the buffer is full
+
+    // characters a producer has reserved but not appended yet. Only touched by its own thread
+    private static final class Credit {
+        long noOfChar;
+    }
+
+    // Constructor. initializes instance variables
+    public MpmcMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.maxMsgSize = maxMsgSize;
+        this.creditChunk = Math.max(1, maxMsgSize / CREDIT_SHARE);
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+    }
+
+    // Append an event to the back of the buffer. Safe to call from any number of threads
+    // The room for the event is always reserved before it goes into the queue, so readers never see more characters than were reserved.
+    // Credit held by the other producers is not free for this one, so the buffer may count as full up to one chunk per producer early
+    // If dropNewCharWhenBufferFull is true, the new event is dropped when it does not fit
+    // If dropNewCharWhenBufferFull is false, the oldest events are pushed out, one at a time, until the room for the new event is reserved.
+    // If nothing is left to push out, the missing room is other producers' credit & is taken anyway (over budget by at most that credit)
+    public void appendToBack(String newText) {
+        int length = newText.length();
+        if (length > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+
+        Credit credit = this.credit.get();
+        if (dropNewCharWhenBufferFull) {
+            if (credit.noOfChar < length && !reserve(credit, length - credit.noOfChar)) {
+                Diagnostics.recordDropped("full - dropped new", newText);
+                return;
+            }
+            credit.noOfChar -= length;
+            queue.offer(newText);
+            return;
+        }
+
+        // a producer stops pushing out as soon as its own room is reserved, so concurrent producers do not push out more than they need
+        int noOfEventsPushedOut = 0;
+        long noOfCharPushedOut = 0;
+        while (credit.noOfChar < length && !reserve(credit, length - credit.noOfChar)) {
+            String oldest = queue.poll();
+            if (oldest == null) {
+                // what is missing is other producers' credit, which will not go into the queue before they append; take it anyway
+                noOfCharGranted.addAndGet(length - credit.noOfChar);
+                credit.noOfChar = length;
+                break;
+            }
+            noOfCharFreed.add(oldest.length());
+            noOfEventsPushedOut++;
+            noOfCharPushedOut += oldest.length();
+        }
+        credit.noOfChar -= length;
+        queue.offer(newText);
+        if (noOfEventsPushedOut > 0) {
+            Diagnostics.record("full - pushed out messages", noOfEventsPushedOut);
+            Diagnostics.count("full - pushed out characters", noOfCharPushedOut);
+        }
+    }
+
+    // Takes at least needed more characters of the budget as credit for this producer, or a whole chunk if that much is free.
+    // Returns false (& takes nothing) if not even needed characters are free
+    private boolean reserve(Credit credit, long needed) {
+        while (true) {
+            long granted = noOfCharGranted.get();
+            long free = maxMsgSize - (granted - noOfCharFreed.sum());
+            if (free < needed)
+                return false;
+            long taken = Math.min(free, Math.max(needed, creditChunk));
+            if (noOfCharGranted.compareAndSet(granted, granted + taken)) {
+                credit.noOfChar += taken;
+                return true;
+            }
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        long noOfCharCleared = 0;
+        String oldest;
+        while ((oldest = queue.poll()) != null)
+            noOfCharCleared += oldest.length();
+        noOfCharFreed.add(noOfCharCleared);
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    // A weakly consistent snapshot: events appended or taken while it is built may or may not show
+    public String getWholeMsg() {
+        StringBuilder builder = new StringBuilder();
+        for (String text : queue)
+            builder.append(text);
+        return (builder.length() == 0 ? null : builder.toString());
+    }
+
+    // Similar to getWholeMsg, except that the events returned are taken out of the buffer
+    // Takes no more characters than were reserved when the call started, so fast producers cannot keep a reader here forever
+    public String getWholeMsgAndClear() {
+        long noOfCharAtStart = noOfCharGranted.get() - noOfCharFreed.sum();
+        String text = queue.poll();
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(text);
+        while (builder.length() < noOfCharAtStart && (text = queue.poll()) != null)
+            builder.append(text);
+        noOfCharFreed.add(builder.length());
+        Diagnostics.record("returned characters", builder.length());
+        return builder.toString();
+    }
+
+    // Takes events one at a time; an event polled that takes the total past maxChars cannot be put back, so it is still moved, as the last one
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        int noOfEventsMoved = 0;
+        int noOfCharMoved = 0;
+        String text;
+        while (noOfEventsMoved < maxEvents && noOfCharMoved < maxChars && (text = queue.poll()) != null) {
+            sink.add(text);
+            noOfCharMoved += text.length();
+            noOfEventsMoved++;
+        }
+        if (noOfEventsMoved > 0) {
+            noOfCharFreed.add(noOfCharMoved);
+            Diagnostics.record("drained messages", noOfEventsMoved);
+        }
+        return noOfEventsMoved;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        String msg = getWholeMsg();
+        System.out.println("Message Buffer: " + (msg == null ? "" : msg));
+        System.out.println("Message Buffer contains " + (msg == null ? 0 : msg.length()) + " characters ("
+                + (noOfCharGranted.get() - noOfCharFreed.sum()) + " reserved).");
+    }
+
+    // Returns true if buffer is empty (i.e. holds no events), returns false otherwise
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
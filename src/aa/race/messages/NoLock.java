@@ -0,0 +1,61 @@
+package aa.race.messages;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+// A Lock that does nothing, for the UnsynchronizedMessageBuffer. Its Conditions never wait:
+// with no lock to release, nobody else could get in to signal them
+class NoLock implements Lock, Condition {
+
+    static final NoLock INSTANCE = new NoLock();
+
+    private NoLock() {
+    }
+
+    public void lock() {
+    }
+
+    public void lockInterruptibly() {
+    }
+
+    public boolean tryLock() {
+        return true;
+    }
+
+    public boolean tryLock(long time, TimeUnit unit) {
+        return true;
+    }
+
+    public void unlock() {
+    }
+
+    public Condition newCondition() {
+        return this;
+    }
+
+    public void await() {
+    }
+
+    public void awaitUninterruptibly() {
+    }
+
+    public long awaitNanos(long nanosTimeout) {
+        return 0;
+    }
+
+    public boolean await(long time, TimeUnit unit) {
+        return false;
+    }
+
+    public boolean awaitUntil(Date deadline) {
+        return false;
+    }
+
+    public void signal() {
+    }
+
+    public void signalAll() {
+    }
+}
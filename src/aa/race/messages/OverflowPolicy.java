@@ -0,0 +1,37 @@
+package aa.race.messages;
+
+/*
+ * Overflow policy of a Message Buffer
+ * decides what happens to a new message when the buffer has no room left for it:
+ * DropNewOverflowPolicy, DropOldestOverflowPolicy, BlockProducerOverflowPolicy or SpillToDiskOverflowPolicy.
+ * The policy is chosen with the overflowPolicy property in eventsource.properties
+ */
+public interface OverflowPolicy {
+
+    // Appends newText to buffer if there is room, else makes room, waits for room, drops it or diverts it as the policy sees fit
+    // Called with the buffer's lock held
+    void append(Buffer buffer, String newText);
+
+    // Called with the buffer's lock held after messages have been taken out of the buffer
+    default void onDrained(Buffer buffer) {
+    }
+
+    // What a policy can do to the buffer it is attached to. Only valid while the buffer's lock is held
+    interface Buffer {
+
+        // size of the buffer in number of characters
+        int getMaxSize();
+
+        // number of characters that can still be appended
+        int getFreeSpace();
+
+        // appends text to the back of the buffer. The caller makes sure it fits
+        void append(String text);
+
+        // removes & returns the oldest message, or null if the buffer is empty
+        String removeOldest();
+
+        // releases the lock until noOfChar characters fit or timeoutNanos elapse. Returns true if they fit
+        boolean awaitFreeSpace(int noOfChar, long timeoutNanos) throws InterruptedException;
+    }
+}
@@ -28,7 +28,11 @@ public class PullClient {
     private int pullInterval;            // interval between pull requests sent to Pull Server
     private int period;                // period of experiment - how long does this experiment last?
     private int commOverhead;
+    private int longPollTimeout;          // 0 --> poll every pullInterval. otherwise the max msec the Pull Server may hold each request until a message arrives
     private int totalMsg = 0;
+    private int totalMalformed = 0;       // records skipped because they could not be parsed
+    private long versionReceived = 0;     // version of the latest message received, when the Pull Server sends versioned replies
+    private int noOfRepliesSkipped = 0;   // empty replies from a Pull Server that sends versioned replies: there was nothing newer
 
     private static Lock lock = new ReentrantLock();
 
@@ -53,18 +57,30 @@ public class PullClient {
     private void processMsgAndCollectStats(String inputLine) {
 
         // inputLine is in this format: [timestamp of msg1]~[msg 1]~[timestamp of msg2]~[msg 2]~[timestamp of msg3]~[msg 3]~...etc
-        // No error checking is done; assumption is that inputLine is in the correct format
-        String[] temp = inputLine.split("~");
-        int noOfMsg = temp.length / 2;
-        totalMsg += noOfMsg;
-        System.out.println("Number of messages received: " + noOfMsg);
-
+        // A record that cannot be parsed (no timestamp, or cut short) is skipped & counted, & the rest of the reply is still read
         long currentTime = (new Date()).getTime();
+        int noOfMsg = 0;
+        int noOfMalformed = 0;
 
         // retrieve time stamp & message text from received message
-        for (int i = 0; i < temp.length; i += 2) {
-            long msgTime = Long.parseLong(temp[i]);
-            String msg = temp[i + 1];
+        for (int start = 0; start < inputLine.length(); ) {
+            int end = EventFormat.recordEnd(inputLine, start);
+            if (end < 0) {
+                noOfMalformed++; // the rest of the reply is an incomplete record
+                break;
+            }
+            int timestampEnd = EventFormat.timestampEnd(inputLine, start);
+            String record = inputLine.substring(start, end);
+            start = end;
+            long msgTime;
+            try {
+                msgTime = EventFormat.parseTimestamp(record);
+            } catch (NumberFormatException e) {
+                noOfMalformed++;
+                continue;
+            }
+            String msg = inputLine.substring(timestampEnd + 1, end - 1);
+            noOfMsg++;
             System.out.println("Message timestamp: " + msgTime);
             System.out.println("Message text: " + msg);
             long delay = currentTime - msgTime;
@@ -76,6 +92,11 @@ public class PullClient {
             maxDelayRecorded = Math.max(maxDelayRecorded, delay);
             minDelayRecorded = Math.min(minDelayRecorded, delay);
         }
+        totalMsg += noOfMsg;
+        totalMalformed += noOfMalformed;
+        System.out.println("Number of messages received: " + noOfMsg);
+        if (noOfMalformed > 0)
+            System.out.println("Number of malformed records skipped: " + noOfMalformed);
     }
 
     // Everything is done here
@@ -96,7 +117,10 @@ public class PullClient {
 
             while (!exptTimeUp()) { // while time is not up yet. default 63 seconds
                 System.out.println("Polling Pull Server now...");
-                out.println("request"); // send something to the server socket. Doesn't have to be "request"; this is not checked at the Pull Server
+                if (longPollTimeout > 0)
+                    out.println(PullServer.LONG_POLL_REQUEST + " " + longPollTimeout); // server replies as soon as there is a message, or after longPollTimeout msec
+                else
+                    out.println(PullServer.VERSIONED_REQUEST + " " + versionReceived); // a Pull Server with versioned replies does not send this version again. Others do not check the request
 
                 // update noOfCharSentThruNetwork for request sent
                 noOfCharSentThruNetwork += commOverhead;
@@ -110,14 +134,24 @@ public class PullClient {
                 // update noOfCharSentThruNetwork for messages in reply received
                 if (inputLine != null && !inputLine.equals("")) {
                     noOfCharSentThruNetwork += inputLine.length();
+                    // a versioned reply is "<version> <message>". A message itself starts with a timestamp followed by a ~, never a space
+                    int versionEnd = versionEnd(inputLine);
+                    if (versionEnd > 0) {
+                        versionReceived = Long.parseLong(inputLine, 0, versionEnd, 10);
+                        inputLine = inputLine.substring(versionEnd + 1);
+                    }
                     processMsgAndCollectStats(inputLine);
                 } else {
+                    if (versionReceived > 0)
+                        noOfRepliesSkipped++;
                     System.out.println("No message retrieved");
                 }
                 System.out.println("---");
 
-                // wait
-                delay(pullInterval);
+                // wait. In long-poll mode the waiting is done by the Pull Server, so ask again straight away after a message.
+                // After an empty reply (or none) wait anyway, so that a server that cannot hold the reply is not asked again & again
+                if (longPollTimeout <= 0 || inputLine == null || inputLine.isEmpty())
+                    delay(pullInterval);
             }
             // Will arrive here when period for experiment is up.
             // Clean up
@@ -143,6 +177,10 @@ public class PullClient {
             }
             // Show stats for network traffic
             System.out.println("Events read by this client: " + totalMsg);
+            if (totalMalformed > 0)
+                System.out.println("Malformed records skipped: " + totalMalformed);
+            if (noOfRepliesSkipped > 0)
+                System.out.println("Replies without a new message: " + noOfRepliesSkipped);
             System.out.println("Network traffic: " + noOfCharSentThruNetwork + " characters");
             System.out.println("---");
         }
@@ -160,6 +198,7 @@ public class PullClient {
             pullInterval = Integer.parseInt(properties.getProperty("pullInterval"));
             period = Integer.parseInt(properties.getProperty("period"));
             commOverhead = Integer.parseInt(properties.getProperty("commOverhead"));
+            longPollTimeout = Integer.parseInt(properties.getProperty("longPollTimeout", "0").trim());
 
             System.out.println("Read the following attributes from pullclient.properties:");
             System.out.println("  portOfServer....: " + portOfServer);
@@ -167,6 +206,7 @@ public class PullClient {
             System.out.println("  pullInterval....: " + pullInterval);
             System.out.println("  period..........: " + period);
             System.out.println("  commOverhead....: " + commOverhead);
+            System.out.println("  longPollTimeout.: " + longPollTimeout);
             System.out.println("---");
         } catch (IOException e) {
             System.err.println("*** ERROR: " + e.getMessage());
@@ -179,6 +219,14 @@ public class PullClient {
         }
     }
 
+    // the index of the space that ends the version at the front of a versioned reply, or -1 if reply does not start with one
+    private static int versionEnd(String reply) {
+        int i = 0;
+        while (i < reply.length() && reply.charAt(i) >= '0' && reply.charAt(i) <= '9')
+            i++;
+        return (i > 0 && i < reply.length() && reply.charAt(i) == ' ' ? i : -1);
+    }
+
     // sleeps for a few msecs
     private static void delay(int msec) {
         try {
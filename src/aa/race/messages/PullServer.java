@@ -3,29 +3,80 @@ package aa.race.messages;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Date;
 
 // This class is only used in PULL mode. It represents a pull server which listens at a port for a pull client
 // When the client sends a request, messages from the message buffer are retrieved & sent back to the client.
 public class PullServer extends Thread {
 
+    // A request line of "longpoll <timeout in msec>" asks the server to hold the reply until a message arrives or the timeout expires.
+    // Any other request line gets an immediate reply (see pull client source code)
+    static final String LONG_POLL_REQUEST = "longpoll";
+    // A request line of "request <version>" also says which version of the message the client already has (see setVersionedReplies)
+    static final String VERSIONED_REQUEST = "request";
+
+    // With a DirectMessageBuffer, replies are copied as bytes straight from the buffer to the socket through a reused byte array, so nothing
+    // is allocated per reply. It holds maxReplyChars bytes, or with no limit starts at DIRECT_REPLY_BYTES & grows to fit what the buffer
+    // holds, up to MAX_DIRECT_REPLY_BYTES (as getWholeMsgAndClear returns at most 1 GB at a time)
+    private static final int DIRECT_REPLY_BYTES = 1 << 20;
+    private static final int MAX_DIRECT_REPLY_BYTES = 1 << 30;
+
     private long exptStartTime;
 
     // private attributes will be set in the constructor
     private MessageBuffer msgBuffer;
     private int portOfServer;
     private int period;
+    private int consumerId;   // which read cursor of the message buffer this server uses
+    private boolean latestOnly; // if true, the buffer is only read (getWholeMsg), never cleared, as the Event Generator replaces its contents
+    private int maxReplyEvents; // most events sent in one reply. 0 --> no limit
+    private int maxReplyChars;  // most characters sent in one reply (the first event of a reply is always sent whole). 0 --> no limit
+    private ByteBuffer replyBytes;  // reused by every reply from a DirectMessageBuffer
+    private boolean versionedReplies; // if true, replies carry the version of the message & a version the client already has is not sent again
 
     // private static Lock reentrantLock = new ReentrantLock();
 
     // Constructor
     public PullServer(MessageBuffer msgBuffer, int portOfServer, int period) {
+        this(msgBuffer, portOfServer, period, 0);
+    }
+
+    public PullServer(MessageBuffer msgBuffer, int portOfServer, int period, int consumerId) {
+        this(msgBuffer, portOfServer, period, consumerId, false);
+    }
+
+    public PullServer(MessageBuffer msgBuffer, int portOfServer, int period, int consumerId, boolean latestOnly) {
+        this.latestOnly = latestOnly;
         this.msgBuffer = msgBuffer;
         this.portOfServer = portOfServer;
         this.period = period;
+        this.consumerId = consumerId;
+        setName("PullServer-" + consumerId);
+    }
+
+    // Caps the size of each reply, so that one client cannot empty a big buffer in one go & the buffer's lock is held for a bounded time.
+    // 0 means no limit. Must be called before the server is started
+    public void setReplyLimits(int maxReplyEvents, int maxReplyChars) {
+        this.maxReplyEvents = maxReplyEvents;
+        this.maxReplyChars = maxReplyChars;
+    }
+
+    // With latestOnly & an AtomicReferenceMessageBuffer: every reply is "<version> <message>", & the reply is left empty
+    // if the client's request already names that version, so an unchanged message is not sent again & again.
+    // Must be called before the server is started
+    public void setVersionedReplies(boolean versionedReplies) {
+        this.versionedReplies = versionedReplies;
+    }
+
+    // true if a limit was set with setReplyLimits
+    private boolean isReplyLimited() {
+        return (maxReplyEvents > 0 || maxReplyChars > 0);
     }
 
     // returns true when its time to stop this whole thing
@@ -33,6 +84,80 @@ public class PullServer extends Thread {
         return (new Date().getTime() - exptStartTime >= (period * 1000));
     }
 
+    // the timeout (msec) of a long-poll request, or -1 if request is not a well-formed "longpoll <timeout>" (it is then served as a plain poll)
+    private static long longPollTimeoutOf(String request) {
+        if (!request.startsWith(LONG_POLL_REQUEST))
+            return -1;
+        try {
+            return Math.max(0, Long.parseLong(request.substring(LONG_POLL_REQUEST.length()).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // the version the client says it already has, or -1 if request is not a well-formed "request <version>"
+    private static long versionOfClient(String request) {
+        if (!request.startsWith(VERSIONED_REQUEST + " "))
+            return -1;
+        try {
+            return Long.parseLong(request.substring(VERSIONED_REQUEST.length()).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // The reply to request with versionedReplies: "<version> <message>", or an empty string if the client already has this version or the buffer is empty
+    private String versionedReply(String request) {
+        AtomicReferenceMessageBuffer.Snapshot snapshot = ((AtomicReferenceMessageBuffer) msgBuffer).getSnapshot(); // wait-free, & version & message always match
+        if (snapshot.msg.length() == 0)
+            return "";
+        if (snapshot.version <= versionOfClient(request)) {
+            Diagnostics.count("unchanged - skipped replies", 1);
+            return "";
+        }
+        return snapshot.version + " " + snapshot.msg;
+    }
+
+    // msec left before the experiment is up
+    private long exptTimeLeft() {
+        return Math.max(0, period * 1000L - (new Date().getTime() - exptStartTime));
+    }
+
+    // Sends the next reply (a line of whole events) as bytes copied straight out of buffer. Returns false, having sent nothing,
+    // if the oldest event is too big for one reply; the caller then sends it the usual way
+    private boolean replyFromDirectBuffer(DirectMessageBuffer buffer, OutputStream rawOut, long timeout) throws IOException {
+        if (replyBytes == null)
+            replyBytes = ByteBuffer.allocate((maxReplyChars > 0 ? maxReplyChars : DIRECT_REPLY_BYTES) + 1);
+        int maxEvents = (maxReplyEvents > 0 ? maxReplyEvents : Integer.MAX_VALUE);
+        replyBytes.clear();
+        replyBytes.limit(replyBytes.capacity() - 1); // room for the newline
+        int noOfEventsMoved = (timeout >= 0 ? buffer.drainBytesTo(replyBytes, maxEvents, timeout) : buffer.drainBytesTo(replyBytes, maxEvents));
+        if (maxReplyChars == 0 && noOfEventsMoved < maxEvents && !buffer.isEmpty() && growReplyBytes(buffer.noOfBytesHeld())) {
+            // no limit: whatever did not fit goes in the same reply, as it would with getWholeMsgAndClear
+            noOfEventsMoved += buffer.drainBytesTo(replyBytes, maxEvents - noOfEventsMoved);
+        }
+        if (noOfEventsMoved == 0 && !buffer.isEmpty())
+            return false;
+        replyBytes.limit(replyBytes.capacity());
+        replyBytes.put((byte) '\n');
+        rawOut.write(replyBytes.array(), 0, replyBytes.position());
+        rawOut.flush();
+        return true;
+    }
+
+    // Makes room in replyBytes for noOfBytes more bytes (& the newline), keeping what is in it already. The larger array is kept
+    // for later replies. Returns false if replyBytes is at MAX_DIRECT_REPLY_BYTES already
+    private boolean growReplyBytes(long noOfBytes) {
+        int capacity = (int) Math.min(MAX_DIRECT_REPLY_BYTES, replyBytes.position() + noOfBytes) + 1;
+        if (capacity <= replyBytes.capacity())
+            return false;
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        larger.put(replyBytes.array(), 0, replyBytes.position());
+        larger.limit(capacity - 1); // room for the newline
+        replyBytes = larger;
+        return true;
+    }
+
     // Run method
     public void run() {
         exptStartTime = (new Date()).getTime();
@@ -44,18 +169,51 @@ public class PullServer extends Thread {
             Socket clientSocket = null;
             clientSocket = serverSocket.accept(); // accept the first pull client that attempt to etablish a connection
 
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+            OutputStream rawOut = clientSocket.getOutputStream();
+            PrintWriter out = new PrintWriter(rawOut, true);
             BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
             String outputLine;
+            String request;
+            ArrayList<String> batch = new ArrayList<String>();   // reused by every limited reply
+            StringBuilder reply = new StringBuilder();
 
             // while time is not up and pull client got send something which is "request" see pull client source code.
-            while (!exptTimeUp() & in.readLine() != null) {
+            while (!exptTimeUp() & (request = in.readLine()) != null) {
                 // exit if period for experiment is up
                 if (exptTimeUp())
                     break;
 
+                // never hold the reply past the end of the experiment
+                long timeout = longPollTimeoutOf(request);
+                if (timeout >= 0)
+                    timeout = Math.min(timeout, exptTimeLeft());
+
                 //reentrantLock.lock();
-                outputLine = msgBuffer.getWholeMsgAndClear(); // everyone take from the same message buffer.
+                if (latestOnly && versionedReplies) {
+                    outputLine = versionedReply(request);
+                } else if (latestOnly) {
+                    outputLine = msgBuffer.getWholeMsg(); // every client gets the latest message
+                } else if (msgBuffer instanceof DirectMessageBuffer && replyFromDirectBuffer((DirectMessageBuffer) msgBuffer, rawOut, timeout)) {
+                    continue; // already sent
+                } else if (isReplyLimited()) {
+                    int maxEvents = (maxReplyEvents > 0 ? maxReplyEvents : Integer.MAX_VALUE);
+                    int maxChars = (maxReplyChars > 0 ? maxReplyChars : Integer.MAX_VALUE);
+                    batch.clear();
+                    if (timeout >= 0) {
+                        msgBuffer.drainTo(consumerId, batch, maxEvents, maxChars, timeout);
+                    } else {
+                        msgBuffer.drainTo(consumerId, batch, maxEvents, maxChars);
+                    }
+                    // the events are joined here, after the buffer's lock has been released
+                    reply.setLength(0);
+                    for (String text : batch)
+                        reply.append(text);
+                    outputLine = (batch.isEmpty() ? null : reply.toString());
+                } else if (timeout >= 0) {
+                    outputLine = msgBuffer.getWholeMsgAndClear(consumerId, timeout);
+                } else {
+                    outputLine = msgBuffer.getWholeMsgAndClear(consumerId); // everyone take from the same message buffer.
+                }
                 //reentrantLock.unlock();
 
                 // send empty string if outputLine is null
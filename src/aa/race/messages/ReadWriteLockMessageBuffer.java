@@ -0,0 +1,25 @@
+package aa.race.messages;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Message Buffer class
+ * Guarded by a ReentrantReadWriteLock: any number of getWholeMsg calls may run together, everything else runs alone
+ */
+public class ReadWriteLockMessageBuffer extends LockingMessageBuffer {
+
+    // Constructor. initializes instance variables
+    public ReadWriteLockMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull));
+    }
+
+    public ReadWriteLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy) {
+        this(maxMsgSize, overflowPolicy, new ReentrantReadWriteLock());
+    }
+
+    private ReadWriteLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, ReadWriteLock readWriteLock) {
+        super(maxMsgSize, overflowPolicy, InstrumentedLock.wrap("ReadWriteLockMessageBuffer read lock", readWriteLock.readLock()),
+                InstrumentedLock.wrap("ReadWriteLockMessageBuffer write lock", readWriteLock.writeLock()));
+    }
+}
@@ -0,0 +1,209 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Record-oriented Message Buffer
+ * Keeps every appended event as its own record (the parsed timestamp plus the record text, which is held by reference & never copied)
+ * in a circular array, instead of concatenating everything into one StringBuffer.
+ * Capacity is bounded both in records & in bytes (UTF-8). An event is always stored or dropped as a whole,
+ * and draining the buffer costs O(records) rather than O(characters).
+ */
+public class RecordMessageBuffer implements MessageBuffer {
+
+    private final long[] timestamps;  // timestamp of each record, parsed once when the record is appended
+    private final String[] records;   // the [timestamp]~[message]~ text of each record
+    private final int[] recordBytes;  // UTF-8 size of each record
+    private int first;                // index of the oldest record
+    private int noOfRecords;          // number of records held
+    private int noOfBytes;            // total UTF-8 size of the records held
+
+    private final int maxRecords;     // the buffer never holds more records than this
+    private final int maxBytes;       // ... nor more bytes than this
+    private final boolean dropNewCharWhenBufferFull; // determines if new records will push out old records if an insert is attempted when the buffer is full
+    private long eventTtl;            // msec a record may stay in the buffer, judged by its timestamp. 0 --> forever
+
+    private Lock reentrantLock = InstrumentedLock.wrap("RecordMessageBuffer lock", new ReentrantLock());
+
+    // Constructor. initializes instance variables
+    public RecordMessageBuffer(int maxRecords, int maxBytes, boolean dropNewCharWhenBufferFull) {
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+        timestamps = new long[maxRecords];
+        records = new String[maxRecords];
+        recordBytes = new int[maxRecords];
+    }
+
+    // Append one [timestamp]~[message]~ record to the back of the buffer
+    // If dropNewCharWhenBufferFull is true, the new record is dropped when it does not fit
+    // If dropNewCharWhenBufferFull is false, the oldest records are dropped until it fits
+    public void appendToBack(String newText) {
+        // parse & measure outside the lock
+        long timestamp;
+        try {
+            timestamp = EventFormat.parseTimestamp(newText);
+        } catch (NumberFormatException e) {
+            Diagnostics.record("malformed - dropped characters of text which is not a [timestamp]~[message]~ record", newText.length());
+            return;
+        }
+        int size = EventFormat.utf8Length(newText);
+
+        reentrantLock.lock();
+        try {
+            evictExpired(); // expired records make room before anything fresh is dropped
+            if (size > maxBytes || (dropNewCharWhenBufferFull && (noOfRecords == maxRecords || noOfBytes + size > maxBytes))) {
+                Diagnostics.recordDropped("full - dropped new", 1, newText.length(), size);
+                return;
+            }
+
+            // dropNewCharWhenBufferFull is false: push out the oldest records, one array slot at a time
+            int noOfRecordsPushedOut = 0;
+            long noOfCharPushedOut = 0;
+            long noOfBytesPushedOut = 0;
+            while (noOfRecords == maxRecords || noOfBytes + size > maxBytes) {
+                noOfCharPushedOut += records[first].length();
+                noOfBytesPushedOut += recordBytes[first];
+                removeFirst();
+                noOfRecordsPushedOut++;
+            }
+            if (noOfRecordsPushedOut > 0)
+                Diagnostics.recordDropped("full - pushed out", noOfRecordsPushedOut, noOfCharPushedOut, noOfBytesPushedOut);
+
+            int last = (first + noOfRecords) % maxRecords;
+            timestamps[last] = timestamp;
+            records[last] = newText;
+            recordBytes[last] = size;
+            noOfRecords++;
+            noOfBytes += size;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        reentrantLock.lock();
+        try {
+            while (noOfRecords > 0)
+                removeFirst();
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        reentrantLock.lock();
+        try {
+            return concatenate(false);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    public String getWholeMsgAndClear() {
+        reentrantLock.lock();
+        try {
+            evictExpired();
+            String temp = concatenate(true);
+            if (temp != null)
+                Diagnostics.record("returned characters", temp.length());
+            return temp;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Moves the records themselves (they are never copied), so the lock is held for O(records moved). maxChars is counted in bytes
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        reentrantLock.lock();
+        try {
+            evictExpired();
+            int noOfRecordsMoved = 0;
+            int noOfBytesMoved = 0;
+            while (noOfRecordsMoved < maxEvents && noOfRecords > 0) {
+                if (noOfRecordsMoved > 0 && noOfBytesMoved + recordBytes[first] > maxChars)
+                    break;
+                sink.add(records[first]);
+                noOfBytesMoved += recordBytes[first];
+                removeFirst();
+                noOfRecordsMoved++;
+            }
+            if (noOfRecordsMoved > 0)
+                Diagnostics.record("drained messages", noOfRecordsMoved);
+            return noOfRecordsMoved;
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    public void setEventTtl(long ttlMillis) {
+        eventTtl = ttlMillis;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        reentrantLock.lock();
+        try {
+            System.out.println("Message Buffer: " + (noOfRecords == 0 ? "" : concatenate(false)));
+            System.out.println("Message Buffer contains " + noOfRecords + " records (" + noOfBytes + " bytes).");
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Returns true if buffer is empty (i.e. holds no records), returns false otherwise
+    public boolean isEmpty() {
+        reentrantLock.lock();
+        try {
+            return (noOfRecords == 0);
+        } finally {
+            reentrantLock.unlock();
+        }
+    }
+
+    // Joins the records into the wire format, oldest first, optionally removing them. Caller must hold the lock
+    private String concatenate(boolean remove) {
+        if (noOfRecords == 0)
+            return null;
+
+        // each UTF-8 byte is at most one char, so noOfBytes is always enough room
+        StringBuilder builder = new StringBuilder(noOfBytes);
+        for (int i = 0, index = first; i < noOfRecords; i++, index = (index + 1) % maxRecords)
+            builder.append(records[index]);
+        if (remove)
+            while (noOfRecords > 0)
+                removeFirst();
+        return builder.toString();
+    }
+
+    // Removes the expired records from the front, using the timestamps parsed on append. Caller must hold the lock
+    private void evictExpired() {
+        if (eventTtl <= 0)
+            return;
+        long oldestAllowed = System.currentTimeMillis() - eventTtl;
+        int noOfRecordsExpired = 0;
+        int noOfBytesExpired = 0;
+        while (noOfRecords > 0 && timestamps[first] < oldestAllowed) {
+            noOfBytesExpired += recordBytes[first];
+            removeFirst();
+            noOfRecordsExpired++;
+        }
+        if (noOfRecordsExpired > 0) {
+            Diagnostics.record("expired - evicted records", noOfRecordsExpired);
+            Diagnostics.count("expired - evicted bytes", noOfBytesExpired);
+        }
+    }
+
+    // Removes the oldest record. Caller must hold the lock & ensure the buffer is not empty
+    private void removeFirst() {
+        noOfBytes -= recordBytes[first];
+        records[first] = null;
+        first = (first + 1) % maxRecords;
+        noOfRecords--;
+    }
+}
@@ -0,0 +1,25 @@
+package aa.race.messages;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Message Buffer class
+ * Every call is serialized through a single ReentrantLock guarding a circular queue of the appended messages
+ */
+public class ReentrantLockMessageBuffer extends LockingMessageBuffer {
+
+    // Constructor. initializes instance variables
+    // dropNewCharWhenBufferFull picks between the DropNewOverflowPolicy & the DropOldestOverflowPolicy
+    public ReentrantLockMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull));
+    }
+
+    public ReentrantLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy) {
+        this(maxMsgSize, overflowPolicy, InstrumentedLock.wrap("ReentrantLockMessageBuffer lock", new ReentrantLock()));
+    }
+
+    private ReentrantLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, Lock reentrantLock) {
+        super(maxMsgSize, overflowPolicy, reentrantLock, reentrantLock);
+    }
+}
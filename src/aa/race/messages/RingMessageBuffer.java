@@ -0,0 +1,211 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Lock-free Message Buffer
+ * A fixed-capacity ring of message slots, each with its own sequence number, plus an atomic character count.
+ * appendToBack & getWholeMsgAndClear only ever CAS the tail / head positions, so the Event Generator & the Pull Servers never block each other.
+ * Each appended String occupies one slot & is stored or dropped whole. When dropNewCharWhenBufferFull is false, whole oldest messages are pushed out to make room.
+ */
+public class RingMessageBuffer implements MessageBuffer {
+
+    private static final int MAX_NO_OF_SLOTS = 1 << 20;
+
+    private final AtomicReferenceArray<String> slots;  // the messages themselves
+    private final AtomicLongArray sequences;           // per slot: equals the position when the slot is free for that position, position + 1 once it holds that position's message
+    private final int mask;                            // no of slots - 1 (no of slots is a power of 2)
+    private final AtomicLong head = new AtomicLong();  // position of the next message to read
+    private final AtomicLong tail = new AtomicLong();  // position of the next message to write
+    private final AtomicInteger noOfCharInBuffer = new AtomicInteger(); // characters reserved or held by the slots
+
+    private final int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private final boolean dropNewCharWhenBufferFull; // determines if new characters will push out old characters if an insert is attempted when the buffer is full
+
+    // Constructor. initializes instance variables
+    public RingMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+
+        // every message holds at least one character, so maxMsgSize slots are enough to never run out before the character budget does
+        int noOfSlots = Integer.highestOneBit(Math.max(2, Math.min(maxMsgSize, MAX_NO_OF_SLOTS)) - 1) << 1;
+        slots = new AtomicReferenceArray<String>(noOfSlots);
+        sequences = new AtomicLongArray(noOfSlots);
+        for (int i = 0; i < noOfSlots; i++)
+            sequences.set(i, i);
+        mask = noOfSlots - 1;
+    }
+
+    // Append a String to the back of the encapsulated message. The message is stored whole or dropped whole
+    // If dropNewCharWhenBufferFull is true, a new message that does not fit is dropped
+    // If dropNewCharWhenBufferFull is false, the oldest messages will be dropped & the new message "pushed in"
+    public void appendToBack(String newText) {
+        // a message bigger than the whole buffer can never fit
+        if (newText.length() > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+
+        if (dropNewCharWhenBufferFull) {
+            // reserve room for the whole new message
+            while (true) {
+                int noOfCharUsed = noOfCharInBuffer.get();
+                if (noOfCharUsed + newText.length() > maxMsgSize) {
+                    Diagnostics.recordDropped("full - dropped new", newText);
+                    return;
+                }
+                if (noOfCharInBuffer.compareAndSet(noOfCharUsed, noOfCharUsed + newText.length()))
+                    break;
+            }
+
+            if (!offer(newText)) {
+                // out of slots - give the reservation back
+                noOfCharInBuffer.addAndGet(-newText.length());
+                Diagnostics.recordDropped("full - dropped new", newText);
+            }
+            return;
+        }
+
+        // dropNewCharWhenBufferFull is false
+        int noOfEventsPushedOut = 0;
+        int charPushedOut = 0;
+
+        noOfCharInBuffer.addAndGet(newText.length());
+        while (!offer(newText)) {
+            String oldest = poll();
+            if (oldest != null) {
+                charPushedOut += oldest.length();
+                noOfEventsPushedOut++;
+            }
+        }
+        while (noOfCharInBuffer.get() > maxMsgSize) {
+            String oldest = poll();
+            if (oldest == null)
+                break;
+            charPushedOut += oldest.length();
+            noOfEventsPushedOut++;
+        }
+
+        if (noOfEventsPushedOut > 0) {
+            Diagnostics.record("full - pushed out messages", noOfEventsPushedOut);
+            Diagnostics.count("full - pushed out characters", charPushedOut);
+        }
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        long end = tail.get();
+        while (head.get() < end && poll() != null) ;
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    // This is a best-effort snapshot: messages taken by a concurrent reader while walking the ring are skipped
+    public String getWholeMsg() {
+        StringBuilder builder = new StringBuilder();
+        for (long pos = head.get(), end = tail.get(); pos < end; pos++) {
+            int index = (int) pos & mask;
+            if (sequences.get(index) != pos + 1)
+                continue;
+            String text = slots.get(index);
+            // the slot must still hold this position after the read, else text may belong to another lap
+            if (text != null && sequences.get(index) == pos + 1)
+                builder.append(text);
+        }
+        return (builder.length() == 0 ? null : builder.toString());
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    // Only the messages present when the call starts are taken, so a fast writer cannot keep a reader here forever
+    public String getWholeMsgAndClear() {
+        long end = tail.get();
+        String text = poll();
+        if (text == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(text.length() + Math.max(0, noOfCharInBuffer.get()));
+        builder.append(text);
+        while (head.get() < end && (text = poll()) != null)
+            builder.append(text);
+
+        String temp = builder.toString();
+        Diagnostics.record("returned characters", temp.length());
+        return temp;
+    }
+
+    // Takes messages one slot at a time, so there is no lock to hold at all. A message polled that would take the total
+    // past maxChars cannot be put back (another reader may already be behind it), so it is still moved, as the last one
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        int noOfEventsMoved = 0;
+        int noOfCharMoved = 0;
+        String text;
+        while (noOfEventsMoved < maxEvents && noOfCharMoved < maxChars && (text = poll()) != null) {
+            sink.add(text);
+            noOfCharMoved += text.length();
+            noOfEventsMoved++;
+        }
+        if (noOfEventsMoved > 0)
+            Diagnostics.record("drained messages", noOfEventsMoved);
+        return noOfEventsMoved;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        String msg = getWholeMsg();
+        System.out.println("Message Buffer: " + (msg == null ? "" : msg));
+        System.out.println("Message Buffer contains " + noOfCharInBuffer.get() + " characters.");
+    }
+
+    // Returns true if buffer is empty (i.e. length is zero), returns false otherwise
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    // Claims the slot at the tail & publishes text into it. Returns false if every slot is taken
+    private boolean offer(String text) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, text);
+                    sequences.lazySet(index, pos + 1); // publishes the slot to readers
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // Claims the slot at the head & frees it for the writer. Returns null if there is nothing to read
+    private String poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    String text = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.lazySet(index, pos + mask + 1); // hands the slot over to the writer of the next lap
+                    noOfCharInBuffer.addAndGet(-text.length());
+                    return text;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package aa.race.messages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Sharded Message Buffer
+ * The buffer is split into shardCount independent shards, each a queue of messages guarded by its own ReentrantLock (a LockingMessageBuffer),
+ * so with many Event Generators & Pull Servers the threads are spread over shardCount locks instead of queueing up on one.
+ * Each shard gets an equal part of maxMsgSize & drops or pushes out whole messages on its own.
+ *  - by producer: every Event Generator is given a shard, round-robin, the first time it appends & sticks to it, so its messages stay in the order it fired them
+ *  - by key: a keyed message goes to the shard its key hashes to, so the messages of one key stay in order however many Event Generators fire them;
+ *    a message without a key goes to the shard of its Event Generator
+ *  - every Pull Server (consumer) visits the shards in turn, starting one shard further on every call so that no shard is always served last,
+ *    or, with shardAffinity, first empties the shards assigned to it (shard s belongs to consumer s % noOfConsumers)
+ *    & only takes from the other shards when its own are empty, so messages are never stranded when a Pull Client is not connected
+ * There is no order between messages of different shards.
+ * A long poll waits on a condition of the whole buffer, which every append signals while anyone is waiting, so it wakes up for a message in any shard.
+ * The shards are only ever drained outside that condition's lock, which guards nothing but a sequence number of the appends.
+ * Each consumerId must only be used by one thread at a time
+ */
+public class ShardedMessageBuffer implements MessageBuffer {
+
+    private final Shard[] shards;
+    private final int noOfConsumers;
+    private final boolean shardAffinity;
+    private final boolean shardByKey;
+    private final int[] nextShard;          // per consumer: the shard its next call starts at
+
+    private final AtomicInteger noOfProducers = new AtomicInteger();
+    private final ThreadLocal<Shard> producerShard = ThreadLocal.withInitial(() -> nextProducerShard());
+
+    // long polls wait on appended, which is only signalled (& its lock only taken by appends) while noOfWaiting > 0
+    private final Lock waitLock = InstrumentedLock.wrap("ShardedMessageBuffer long-poll lock", new ReentrantLock());
+    private final Condition appended = waitLock.newCondition();
+    private final AtomicInteger noOfWaiting = new AtomicInteger();
+    private long appendSequence;    // guarded by waitLock. Moved on by every append made while noOfWaiting > 0
+
+    // Constructor. initializes instance variables
+    // maxMsgSize is split evenly between the shards. shardByKey --> messages are sharded by key rather than by Event Generator
+    public ShardedMessageBuffer(int shardCount, int noOfConsumers, boolean shardAffinity, boolean shardByKey, int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.noOfConsumers = noOfConsumers;
+        this.shardAffinity = shardAffinity;
+        this.shardByKey = shardByKey;
+        shards = new Shard[shardCount];
+        for (int s = 0; s < shardCount; s++)
+            shards[s] = new Shard(s, maxMsgSize / shardCount + (s < maxMsgSize % shardCount ? 1 : 0), dropNewCharWhenBufferFull);
+        nextShard = new int[noOfConsumers];
+        for (int c = 0; c < noOfConsumers; c++)
+            nextShard[c] = c % shardCount;
+    }
+
+    // Append a String to the shard of its key, or of the calling thread
+    public void appendToBack(String newText) {
+        shardOf(newText).appendToBack(newText);
+        signalAppended();
+    }
+
+    // Replaces the whole contents of the buffer with newText, which goes to the shard of its key, or of the calling thread.
+    // Not atomic across shards: a reader may see another shard's message in between
+    public void setMessageBufferText(String newText) {
+        Shard own = shardOf(newText);
+        for (Shard shard : shards)
+            if (shard != own)
+                shard.clear();
+        own.setMessageBufferText(newText);
+        signalAppended();
+    }
+
+    // Erase everything in the buffer, one shard at a time
+    public void clear() {
+        for (Shard shard : shards)
+            shard.clear();
+    }
+
+    // Return the contents of every shard as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        StringBuilder builder = new StringBuilder();
+        for (Shard shard : shards) {
+            String text = shard.getWholeMsg();
+            if (text != null)
+                builder.append(text);
+        }
+        return (builder.length() == 0 ? null : builder.toString());
+    }
+
+    // Same as getWholeMsgAndClear(0)
+    public String getWholeMsgAndClear() {
+        return getWholeMsgAndClear(0);
+    }
+
+    // Takes everything out of the shards consumerId visits (see the class comment), one shard lock at a time
+    public String getWholeMsgAndClear(int consumerId) {
+        StringBuilder builder = new StringBuilder();
+        int[] order = visitOrder(consumerId);
+        int noOfAssigned = noOfAssigned(consumerId);
+        for (int i = 0; i < order.length; i++) {
+            if (i == noOfAssigned && builder.length() > 0)
+                break; // with shardAffinity, the other shards are only emptied when the assigned ones were
+            String text = shards[order[i]].getWholeMsgAndClear();
+            if (text != null)
+                builder.append(text);
+        }
+        return (builder.length() == 0 ? null : builder.toString());
+    }
+
+    // Long-poll version: if nothing is found, waits up to timeoutMillis for a message to be appended to any shard, then looks again
+    public String getWholeMsgAndClear(int consumerId, long timeoutMillis) {
+        String text = getWholeMsgAndClear(consumerId);
+        if (text != null || timeoutMillis <= 0)
+            return text;
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        noOfWaiting.incrementAndGet();
+        try {
+            while (true) {
+                long seen = appendSequence();
+                text = getWholeMsgAndClear(consumerId);
+                if (text != null || nanos <= 0)
+                    return text;
+                nanos = awaitAppend(seen, nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // give up waiting but keep the interrupt for the caller
+            return null;
+        } finally {
+            noOfWaiting.decrementAndGet();
+        }
+    }
+
+    // Same as drainTo(0, sink, maxEvents, maxChars)
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        return drainTo(0, sink, maxEvents, maxChars);
+    }
+
+    // Drains the shards consumerId visits, one shard lock at a time, until maxEvents or maxChars is reached.
+    // Each shard moves its first event whole, so the total may go past maxChars by the first event taken from a later shard
+    public int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars) {
+        ArrayList<String> batch = new ArrayList<String>();
+        int noOfCharMoved = 0;
+        int[] order = visitOrder(consumerId);
+        int noOfAssigned = noOfAssigned(consumerId);
+        for (int i = 0; i < order.length; i++) {
+            if (batch.size() >= maxEvents || noOfCharMoved >= maxChars || (i == noOfAssigned && !batch.isEmpty()))
+                break;
+            int sizeBefore = batch.size();
+            shards[order[i]].drainTo(batch, maxEvents - batch.size(), maxChars - noOfCharMoved);
+            for (int j = sizeBefore; j < batch.size(); j++)
+                noOfCharMoved += batch.get(j).length();
+        }
+        sink.addAll(batch);
+        return batch.size();
+    }
+
+    // Long-poll version, waiting the same way as getWholeMsgAndClear(consumerId, timeoutMillis)
+    public int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars, long timeoutMillis) {
+        int noOfEventsMoved = drainTo(consumerId, sink, maxEvents, maxChars);
+        if (noOfEventsMoved > 0 || timeoutMillis <= 0)
+            return noOfEventsMoved;
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        noOfWaiting.incrementAndGet();
+        try {
+            while (true) {
+                long seen = appendSequence();
+                noOfEventsMoved = drainTo(consumerId, sink, maxEvents, maxChars);
+                if (noOfEventsMoved > 0 || nanos <= 0)
+                    return noOfEventsMoved;
+                nanos = awaitAppend(seen, nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // give up waiting but keep the interrupt for the caller
+            return 0;
+        } finally {
+            noOfWaiting.decrementAndGet();
+        }
+    }
+
+    // Every shard evicts its own expired events
+    public void setEventTtl(long ttlMillis) {
+        for (Shard shard : shards)
+            shard.setEventTtl(ttlMillis);
+    }
+
+    // Show the contents of the buffer to stdout, shard by shard
+    public void print() {
+        for (Shard shard : shards) {
+            System.out.println("Shard " + shard.index + ":");
+            shard.print();
+        }
+    }
+
+    // Returns true if every shard is empty, returns false otherwise
+    public boolean isEmpty() {
+        for (Shard shard : shards)
+            if (!shard.isEmpty())
+                return false;
+        return true;
+    }
+
+    // the shard text goes to: that of its key when sharding by key, otherwise (or if it has no key) that of the calling thread
+    private Shard shardOf(String text) {
+        if (shardByKey) {
+            String key = EventFormat.parseKey(text);
+            if (key != null)
+                return shards[(key.hashCode() & 0x7FFFFFFF) % shards.length];
+        }
+        return producerShard.get();
+    }
+
+    // Wakes up the long polls, if there are any. The appended message is already in its shard: a long poll that registered (noOfWaiting)
+    // before it was appended either finds it when it drains, or missed it & then sees appendSequence move on before it goes to sleep
+    private void signalAppended() {
+        if (noOfWaiting.get() == 0)
+            return;
+        waitLock.lock();
+        try {
+            appendSequence++;
+            appended.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // appendSequence, read under waitLock. A long poll reads it before it drains
+    private long appendSequence() {
+        waitLock.lock();
+        try {
+            return appendSequence;
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // Waits up to nanos for appendSequence to move on from seen (an append since the long poll last drained) & returns the nsec left.
+    // Only the sequence number is looked at with waitLock held; the shards are drained after it is released
+    private long awaitAppend(long seen, long nanos) throws InterruptedException {
+        waitLock.lock();
+        try {
+            while (appendSequence == seen && nanos > 0)
+                nanos = appended.awaitNanos(nanos);
+            return nanos;
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    // the shard the next Event Generator to append gets
+    private Shard nextProducerShard() {
+        return shards[noOfProducers.getAndIncrement() % shards.length];
+    }
+
+    // true if shard s is assigned to consumerId. With fewer shards than consumers, consumers share shards
+    private boolean isAssigned(int consumerId, int s) {
+        if (shards.length >= noOfConsumers)
+            return s % noOfConsumers == consumerId % noOfConsumers;
+        return s == consumerId % shards.length;
+    }
+
+    // the number of shards visitOrder puts first, as consumerId's own: all of them without shardAffinity
+    private int noOfAssigned(int consumerId) {
+        if (!shardAffinity)
+            return shards.length;
+        int n = 0;
+        for (int s = 0; s < shards.length; s++)
+            if (isAssigned(consumerId % noOfConsumers, s))
+                n++;
+        return n;
+    }
+
+    // The shards consumerId takes from, in the order it takes from them: round-robin starting from its next shard,
+    // with shardAffinity its own shards first. Moves its next shard on by one
+    private int[] visitOrder(int consumerId) {
+        int c = consumerId % noOfConsumers;
+        int start = nextShard[c];
+        nextShard[c] = (start + 1) % shards.length;
+
+        int[] order = new int[shards.length];
+        int n = 0;
+        if (shardAffinity) {
+            for (int i = 0; i < shards.length; i++) {
+                int s = (start + i) % shards.length;
+                if (isAssigned(c, s))
+                    order[n++] = s;
+            }
+            for (int i = 0; i < shards.length; i++) {
+                int s = (start + i) % shards.length;
+                if (!isAssigned(c, s))
+                    order[n++] = s;
+            }
+        } else {
+            for (int i = 0; i < shards.length; i++)
+                order[n++] = (start + i) % shards.length;
+        }
+        return order;
+    }
+
+    // One shard: the usual locked queue of messages, with a lock of its own
+    private static class Shard extends LockingMessageBuffer {
+
+        final int index;
+
+        Shard(int index, int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+            this(index, maxMsgSize, dropNewCharWhenBufferFull, InstrumentedLock.wrap("ShardedMessageBuffer shard " + index + " lock", new ReentrantLock()));
+        }
+
+        private Shard(int index, int maxMsgSize, boolean dropNewCharWhenBufferFull, Lock lock) {
+            super(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull), lock, lock);
+            this.index = index;
+        }
+    }
+}
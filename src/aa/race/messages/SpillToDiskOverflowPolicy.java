@@ -0,0 +1,170 @@
+package aa.race.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+// Overflow policy: messages that do not fit are appended to a file segment on disk instead of being dropped,
+// and are replayed into the buffer (oldest first) as the Pull Servers drain it.
+// While anything is waiting on disk, new messages go to disk too, so the order of messages is kept.
+// Once the segment has been replayed completely it is truncated & reused.
+// As this runs with the buffer's lock held, the disk is touched in batches only: spilled messages are kept in memory
+// until BATCH_CHARS of them are waiting & then written with one call, & they are read back READ_CHUNK bytes at a time.
+// Messages still in memory when the disk has been replayed are replayed straight from memory.
+// A disk error drops the messages concerned & is reported through Diagnostics
+public class SpillToDiskOverflowPolicy implements OverflowPolicy {
+
+    private static final int BATCH_CHARS = 64 * 1024;  // spilled characters kept in memory before they are written out
+    private static final int READ_CHUNK = 64 * 1024;   // bytes read back from disk at a time
+
+    private RandomAccessFile spillFile;
+    private long readPos;       // file position of the next message to read back
+    private long writePos;      // file position the next batch is written at
+    private byte[] chunk = new byte[READ_CHUNK];
+
+    // spilled messages, oldest first: readBack, then the file from readPos to writePos, then toWrite
+    private final ArrayDeque<String> readBack = new ArrayDeque<String>();  // read back from disk, not replayed yet
+    private final ArrayDeque<String> toWrite = new ArrayDeque<String>();   // not written to disk yet
+    private int noOfCharToWrite;
+
+    private long noOfReplayedEvents;      // messages replayed since everything spilled was last replayed
+
+    public SpillToDiskOverflowPolicy(File file) throws IOException {
+        spillFile = new RandomAccessFile(file, "rw");
+        spillFile.setLength(0); // leftovers from an earlier experiment are not replayed
+        file.deleteOnExit();
+    }
+
+    public void append(Buffer buffer, String newText) {
+        if (newText.length() > buffer.getMaxSize()) {
+            Diagnostics.recordDropped("too small - dropped new", newText); // can never fit, so spilling it would only hold up the rest
+            return;
+        }
+        if (hasSpilled())
+            onDrained(buffer); // the older spilled messages get any room first (e.g. after a clear)
+        if (!hasSpilled() && buffer.getFreeSpace() >= newText.length()) {
+            buffer.append(newText);
+            return;
+        }
+
+        toWrite.add(newText);
+        noOfCharToWrite += newText.length();
+        Diagnostics.count("full - spilled messages", 1);
+        if (noOfCharToWrite >= BATCH_CHARS)
+            writeOut();
+    }
+
+    // moves spilled messages back into the buffer for as long as they fit
+    public void onDrained(Buffer buffer) {
+        while (hasSpilled()) {
+            String next = peekNext();
+            if (next == null)
+                break; // what was on disk could not be read back & has been dropped
+            if (next.length() > buffer.getFreeSpace() && next.length() <= buffer.getMaxSize())
+                return;
+            takeNext();
+            if (next.length() <= buffer.getMaxSize()) {
+                buffer.append(next);
+                noOfReplayedEvents++;
+            } else {
+                Diagnostics.recordDropped("too small - dropped spilled", next); // can never fit
+            }
+        }
+        if (hasSpilled())
+            return;
+        if (noOfReplayedEvents > 0) {
+            Diagnostics.record("all spilled messages replayed - messages", noOfReplayedEvents);
+            noOfReplayedEvents = 0;
+        }
+        // segment fully replayed - start it over
+        if (writePos > 0)
+            truncate();
+    }
+
+    private boolean hasSpilled() {
+        return (!readBack.isEmpty() || readPos < writePos || !toWrite.isEmpty());
+    }
+
+    // the oldest spilled message, read back from disk first if need be. null if the disk could not be read
+    private String peekNext() {
+        if (readBack.isEmpty() && readPos < writePos)
+            readChunk();
+        if (!readBack.isEmpty())
+            return readBack.peekFirst();
+        return (readPos < writePos ? null : toWrite.peekFirst());
+    }
+
+    // removes the message peekNext returned
+    private void takeNext() {
+        if (!readBack.isEmpty()) {
+            readBack.pollFirst();
+        } else {
+            noOfCharToWrite -= toWrite.pollFirst().length();
+        }
+    }
+
+    // writes toWrite to the end of the segment with a single call
+    private void writeOut() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(noOfCharToWrite + 4 * toWrite.size());
+            DataOutputStream data = new DataOutputStream(bytes);
+            for (String text : toWrite) {
+                byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+                data.writeInt(encoded.length);
+                data.write(encoded);
+            }
+            spillFile.seek(writePos);
+            spillFile.write(bytes.toByteArray());
+            writePos += bytes.size();
+        } catch (IOException e) {
+            Diagnostics.record("cannot spill to disk (" + e.getMessage() + ") - dropped messages", toWrite.size());
+            for (String text : toWrite)
+                Diagnostics.recordDropped("cannot spill to disk - dropped", text);
+        }
+        toWrite.clear();
+        noOfCharToWrite = 0;
+    }
+
+    // reads the whole messages in the next chunk of the segment into readBack
+    private void readChunk() {
+        try {
+            int n = (int) Math.min(chunk.length, writePos - readPos);
+            spillFile.seek(readPos);
+            spillFile.readFully(chunk, 0, n);
+            int p = 0;
+            while (p + 4 <= n) {
+                int length = ((chunk[p] & 0xFF) << 24) | ((chunk[p + 1] & 0xFF) << 16) | ((chunk[p + 2] & 0xFF) << 8) | (chunk[p + 3] & 0xFF);
+                if (p + 4 + length > n) {
+                    if (p == 0 && n == chunk.length) {
+                        // a message bigger than the chunk: make room for it & read again
+                        chunk = new byte[4 + length];
+                        readChunk();
+                        return;
+                    }
+                    if (p == 0)
+                        throw new IOException("spill file is corrupt");
+                    break;
+                }
+                readBack.add(new String(chunk, p + 4, length, StandardCharsets.UTF_8));
+                p += 4 + length;
+            }
+            readPos += p;
+        } catch (IOException e) {
+            Diagnostics.record("cannot replay from disk (" + e.getMessage() + ") - dropped spilled bytes", writePos - readPos);
+            readPos = writePos;
+        }
+    }
+
+    private void truncate() {
+        readPos = writePos = 0;
+        try {
+            spillFile.setLength(0);
+        } catch (IOException e) {
+            Diagnostics.record("cannot truncate spill file (" + e.getMessage() + ")", 1);
+        }
+    }
+}
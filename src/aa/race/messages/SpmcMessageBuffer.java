@@ -0,0 +1,251 @@
+package aa.race.messages;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Single-producer / multi-consumer Message Buffer
+ * Relies on there being exactly one Event Generator: every counter has a single writer wherever possible, so no locks & almost no CAS.
+ *  - the tail sequence & the number of characters written are only written by the producer, with plain ordered (release) stores
+ *  - each consumer (one per Pull Server) has its own sequence, announcing which slot it is reading, & its own count of characters read
+ *  - the only shared write is the claim sequence, which a consumer CASes forward once per batch it takes (each event goes to one consumer)
+ * Each counter sits on its own pair of cache lines, so a consumer updating its counters does not slow down the producer or the other consumers.
+ * The producer may only reuse a slot once no consumer is still reading it: it works out the lowest sequence still in use (the gate)
+ * & caches it until it runs into it again.
+ * Events are stored or dropped whole. When dropNewCharWhenBufferFull is false, the producer claims the oldest events itself to make room.
+ * appendToBack & clear must only be called by the producer thread, & each consumerId by one thread at a time.
+ */
+public class SpmcMessageBuffer implements MessageBuffer {
+
+    private static final int MAX_NO_OF_SLOTS = 1 << 20;
+    private static final int PAD = 16;              // longs between two counters: 128 bytes, two cache lines
+    private static final long NOT_READING = Long.MAX_VALUE;
+
+    // positions of the counters in the padded array
+    private static final int TAIL = 0;              // sequence the next event will be written at. Producer only
+    private static final int CLAIM = 1;             // sequence of the next event to be taken. CAS by consumers (& the producer when pushing out)
+    private static final int FIRST_CONSUMER = 2;    // then per consumer: the sequence it is reading, or NOT_READING
+                                                    // & after those, per consumer: characters it has read so far
+
+    private final String[] slots;
+    private final int mask;                         // no of slots - 1 (no of slots is a power of 2)
+    private final AtomicLongArray counters;
+    private final int noOfConsumers;
+
+    private final int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private final boolean dropNewCharWhenBufferFull; // determines if new events will push out old events if an insert is attempted when the buffer is full
+
+    // only touched by the producer
+    private long tail;              // own copy of TAIL
+    private long cachedGate;        // lowest sequence some consumer may still read, when last worked out
+    private long noOfCharWritten;
+    private long noOfCharPushedOut;
+    private long cachedNoOfCharRead; // total characters read by the consumers, when last worked out
+
+    // Constructor. initializes instance variables
+    public SpmcMessageBuffer(int noOfConsumers, int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this.noOfConsumers = noOfConsumers;
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+
+        // every message holds at least one character, so maxMsgSize slots are enough to never run out before the character budget does
+        int noOfSlots = Integer.highestOneBit(Math.max(2, Math.min(maxMsgSize, MAX_NO_OF_SLOTS)) - 1) << 1;
+        slots = new String[noOfSlots];
+        mask = noOfSlots - 1;
+        counters = new AtomicLongArray((FIRST_CONSUMER + 2 * noOfConsumers + 2) * PAD);
+        for (int i = 0; i < noOfConsumers; i++)
+            counters.set(index(inProgress(i)), NOT_READING);
+    }
+
+    // Append an event to the back of the buffer. Producer only
+    // If dropNewCharWhenBufferFull is true, the new event is dropped when it does not fit
+    // If dropNewCharWhenBufferFull is false, the oldest events are pushed out until it fits
+    public void appendToBack(String newText) {
+        int length = newText.length();
+        if (length > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+
+        if (!hasRoomFor(length)) {
+            if (dropNewCharWhenBufferFull) {
+                Diagnostics.recordDropped("full - dropped new", newText);
+                return;
+            }
+            int noOfEventsPushedOut = 0;
+            int noOfCharPushedOutNow = 0;
+            while (!hasRoomFor(length)) {
+                String oldest = pushOutOldest();
+                if (oldest == null) {
+                    Thread.onSpinWait(); // a consumer took the oldest events but is still reading them
+                    continue;
+                }
+                noOfEventsPushedOut++;
+                noOfCharPushedOutNow += oldest.length();
+            }
+            if (noOfEventsPushedOut > 0) {
+                Diagnostics.record("full - pushed out messages", noOfEventsPushedOut);
+                Diagnostics.count("full - pushed out characters", noOfCharPushedOutNow);
+            }
+        }
+
+        slots[(int) tail & mask] = newText;
+        noOfCharWritten += length;
+        counters.lazySet(index(TAIL), ++tail); // publishes the slot to the consumers
+    }
+
+    // Erase everything in the buffer. Producer only: the events are pushed out as if the buffer were full
+    public void clear() {
+        while (counters.get(index(CLAIM)) < tail)
+            pushOutOldest();
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    // A best-effort snapshot: an event the producer has already reused the slot of is skipped
+    public String getWholeMsg() {
+        StringBuilder builder = new StringBuilder();
+        long end = counters.get(index(TAIL));
+        for (long seq = counters.get(index(CLAIM)); seq < end; seq++) {
+            String text = slots[(int) seq & mask];
+            // the slot must not have been reused while it was read
+            if (text != null && counters.get(index(TAIL)) - seq <= slots.length)
+                builder.append(text);
+        }
+        return (builder.length() == 0 ? null : builder.toString());
+    }
+
+    // Same as getWholeMsgAndClear(0)
+    public String getWholeMsgAndClear() {
+        return getWholeMsgAndClear(0);
+    }
+
+    // Takes every event published so far on behalf of consumerId
+    public String getWholeMsgAndClear(int consumerId) {
+        ArrayList<String> taken = new ArrayList<String>();
+        int noOfCharTaken = take(consumerId, taken, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        if (taken.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(noOfCharTaken);
+        for (String text : taken)
+            builder.append(text);
+        Diagnostics.record("returned characters", noOfCharTaken);
+        return builder.toString();
+    }
+
+    // Same as drainTo(0, sink, maxEvents, maxChars)
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        return drainTo(0, sink, maxEvents, maxChars);
+    }
+
+    public int drainTo(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars) {
+        int sizeBefore = sink.size();
+        take(consumerId, sink, maxEvents, maxChars);
+        int noOfEventsMoved = sink.size() - sizeBefore;
+        if (noOfEventsMoved > 0)
+            Diagnostics.record("drained messages", noOfEventsMoved);
+        return noOfEventsMoved;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        String msg = getWholeMsg();
+        System.out.println("Message Buffer: " + (msg == null ? "" : msg));
+        System.out.println("Message Buffer contains " + (counters.get(index(TAIL)) - counters.get(index(CLAIM))) + " messages.");
+    }
+
+    // Returns true if every published event has been taken, returns false otherwise
+    public boolean isEmpty() {
+        return counters.get(index(CLAIM)) >= counters.get(index(TAIL));
+    }
+
+    // Claims a batch of events for consumerId with a single CAS & adds them to sink: everything up to the tail, maxEvents or maxChars.
+    // The consumer first announces the sequence it starts at, so the producer cannot reuse those slots while they are sized up & read.
+    // Returns the number of characters taken
+    private int take(int consumerId, Collection<? super String> sink, int maxEvents, int maxChars) {
+        int announced = index(inProgress(consumerId));
+        int noOfCharTaken = 0;
+        while (true) {
+            long seq = counters.get(index(CLAIM));
+            counters.set(announced, seq);
+            long published = counters.get(index(TAIL));
+            long end = seq;
+            noOfCharTaken = 0;
+            while (end < published && end - seq < maxEvents) {
+                int length = slots[(int) end & mask].length();
+                if (end > seq && noOfCharTaken + length > maxChars)
+                    break;
+                noOfCharTaken += length;
+                end++;
+            }
+            if (end == seq) {
+                noOfCharTaken = 0;
+                break;
+            }
+            if (counters.compareAndSet(index(CLAIM), seq, end)) {
+                for (long i = seq; i < end; i++)
+                    sink.add(slots[(int) i & mask]);
+                break;
+            }
+            // another consumer (or the producer pushing out) got there first: size up a new batch from the new claim sequence
+        }
+        counters.set(announced, NOT_READING);
+        if (noOfCharTaken > 0) {
+            int charRead = index(charRead(consumerId));
+            counters.lazySet(charRead, counters.get(charRead) + noOfCharTaken); // this consumer is the only writer
+        }
+        return noOfCharTaken;
+    }
+
+    // Producer only: true if an event of length characters fits in both the slots & the character budget
+    private boolean hasRoomFor(int length) {
+        if (tail - cachedGate >= slots.length) {
+            cachedGate = gate();
+            if (tail - cachedGate >= slots.length)
+                return false;
+        }
+        if (noOfCharWritten - noOfCharPushedOut - cachedNoOfCharRead + length > maxMsgSize) {
+            long noOfCharRead = 0;
+            for (int i = 0; i < noOfConsumers; i++)
+                noOfCharRead += counters.get(index(charRead(i)));
+            cachedNoOfCharRead = noOfCharRead;
+            return (noOfCharWritten - noOfCharPushedOut - cachedNoOfCharRead + length <= maxMsgSize);
+        }
+        return true;
+    }
+
+    // The lowest sequence that may still be read: the claim sequence, or lower if a consumer announced it is reading a lower one.
+    // The claim sequence has to be read first: a consumer announcing after that can only announce the same or a higher sequence
+    private long gate() {
+        long gate = counters.get(index(CLAIM));
+        for (int i = 0; i < noOfConsumers; i++)
+            gate = Math.min(gate, counters.get(index(inProgress(i))));
+        return gate;
+    }
+
+    // Producer only: takes the oldest event out of the consumers' reach. Returns null if a consumer claimed it first (or there is none)
+    private String pushOutOldest() {
+        long seq = counters.get(index(CLAIM));
+        if (seq >= tail)
+            return null;
+        String oldest = slots[(int) seq & mask]; // only the producer ever overwrites a slot, so this read is safe
+        if (!counters.compareAndSet(index(CLAIM), seq, seq + 1))
+            return null;
+        noOfCharPushedOut += oldest.length();
+        return oldest;
+    }
+
+    private int inProgress(int consumerId) {
+        return FIRST_CONSUMER + consumerId;
+    }
+
+    private int charRead(int consumerId) {
+        return FIRST_CONSUMER + noOfConsumers + consumerId;
+    }
+
+    // position in the padded array of counter number counter (counter 0 starts one PAD in, clear of the array header)
+    private static int index(int counter) {
+        return (counter + 1) * PAD;
+    }
+}
@@ -0,0 +1,179 @@
+package aa.race.messages;
+
+import java.util.Collection;
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * Message Buffer class
+ * represents the Message Buffer to which the Event Generator will be "writing" to
+ * The whole message is one immutable String guarded by a StampedLock, so getWholeMsg is an optimistic read that takes no lock at all.
+ * Meant for the latest deliveryMode, where the Event Generator replaces the message & the Pull Servers only read it
+ */
+public class StampedLockMessageBuffer implements MessageBuffer {
+
+    // an immutable String, replaced as a whole by every write, so a reader can take it without any lock
+    // & only has to check afterwards that no write happened in the meantime
+    private String msg; // the actual message being encapsulated
+    private int maxMsgSize;   // size of this buffer in number of characters. This size cannot be breached
+    private boolean dropNewCharWhenBufferFull; // determines if new characters will push out old characters if an insert is attempted when the buffer is full
+
+    // Self added
+    // unlike the ReentrantReadWriteLock, an optimistic read of a StampedLock writes nothing to the lock,
+    // so readers do not fight over the lock's cache line while the Event Generator is quiet (which is nearly always)
+    private StampedLock stampedLock = new StampedLock();
+
+    // Constructor. initializes instance variables
+    public StampedLockMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        msg = "";
+        this.maxMsgSize = maxMsgSize;
+        this.dropNewCharWhenBufferFull = dropNewCharWhenBufferFull;
+
+    }
+
+    // Replaces the whole contents of the buffer with newText, in one go (used when only the latest message is wanted)
+    public void setMessageBufferText(String newText) {
+
+        long stamp = stampedLock.writeLock();
+        try {
+            // StampedLock is not reentrant, so the append is done here rather than by calling appendToBack
+            msg = "";
+            append(newText);
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+
+    }
+
+    // Append a String to the back of the encapsulated message
+    // Note that if the message buffer size is breached, whole messages will be dropped (discarded)
+    // If dropNewCharWhenBufferFull is true, the new message will be dropped
+    // If dropNewCharWhenBufferFull is false, the oldest messages will be dropped & the new message "pushed in"
+    public void appendToBack(String newText) {
+        long stamp = stampedLock.writeLock();
+        try {
+            append(newText);
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+
+    }
+
+    // Erase everything in the buffer
+    public void clear() {
+        long stamp = stampedLock.writeLock();
+        try {
+            msg = "";
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+
+    }
+
+    // Return the contents of the buffer as a String or null if there is nothing inside
+    public String getWholeMsg() {
+        String temp = read();
+        return (temp.length() == 0 ? null : temp);
+    }
+
+    // Similar to getWholeMsg, except that the buffer is cleared after the message is retrieved
+    public String getWholeMsgAndClear() {
+        long stamp = stampedLock.writeLock();
+        try {
+            String temp = msg;
+
+            if (temp.length() == 0) {
+                return null;
+            }
+
+            Diagnostics.record("returned characters", temp.length());
+            msg = "";
+            return temp;
+
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    // Cuts the whole events within the limits off the front of msg with the write lock held, & splits them into sink after it is released
+    public int drainTo(Collection<? super String> sink, int maxEvents, int maxChars) {
+        String drained;
+        long stamp = stampedLock.writeLock();
+        try {
+            if (msg.length() == 0 || maxEvents <= 0)
+                return 0;
+            int end = EventFormat.wholeRecordsWithin(msg, maxEvents, maxChars);
+            drained = msg.substring(0, end);
+            msg = msg.substring(end);
+        } finally {
+            stampedLock.unlockWrite(stamp);
+        }
+        int noOfEventsMoved = EventFormat.addRecords(drained, sink);
+        Diagnostics.record("drained messages", noOfEventsMoved);
+        return noOfEventsMoved;
+    }
+
+    // Show the contents of the buffer to stdout
+    public void print() {
+        // this method is not used.
+        String temp = read();
+        System.out.println("Message Buffer: " + temp);
+        System.out.println("Message Buffer contains " + temp.length() + " characters.");
+    }
+
+    // Returns true if buffer is empty (i.e. length is zero), returns false otherwise
+    public boolean isEmpty() {
+        // this method is not used.
+        return (read().length() == 0);
+    }
+
+    // Reads msg with an optimistic read. Only if a write got in the way is the read lock actually taken
+    private String read() {
+        long stamp = stampedLock.tryOptimisticRead();
+        String temp = msg;
+        if (!stampedLock.validate(stamp)) {
+            stamp = stampedLock.readLock();
+            try {
+                temp = msg;
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
+        return temp;
+    }
+
+    // Does the actual append. Caller must hold the write lock
+    private void append(String newText) {
+        // a message bigger than the whole buffer can never fit
+        if (newText.length() > maxMsgSize) {
+            Diagnostics.recordDropped("too small - dropped new", newText);
+            return;
+        }
+
+        // dropNewCharWhenBufferFull is true
+        if (dropNewCharWhenBufferFull) {
+            // buffer is full - whole message dropped
+            if (maxMsgSize - msg.length() < newText.length()) {
+                Diagnostics.recordDropped("full - dropped new", newText);
+                return;
+            }
+            // whole message is inserted into buffer
+            // newText is something like 1446024217384~************************************************************~
+            msg = msg + newText;
+            return;
+        }
+
+        // dropNewCharWhenBufferFull is false
+        String newMsg = msg + newText;
+        // some messages already in the buffer will be dropped, whole & oldest first
+        if (newMsg.length() > maxMsgSize) {
+            int charToCutFrTheFront = EventFormat.wholeRecordsPrefix(newMsg, newMsg.length() - maxMsgSize);
+            String pushedOut = newMsg.substring(0, charToCutFrTheFront);
+            Diagnostics.record("full - pushed out messages", EventFormat.countRecords(pushedOut));
+            Diagnostics.count("full - pushed out characters", pushedOut.length());
+            Diagnostics.count("full - pushed out bytes", EventFormat.utf8Length(pushedOut));
+            newMsg = newMsg.substring(charToCutFrTheFront);
+        }
+        // Message buffer size is not breached: whole message is inserted into buffer & life carries on
+        msg = newMsg;
+    }
+}
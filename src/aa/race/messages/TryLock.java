@@ -0,0 +1,51 @@
+package aa.race.messages;
+
+import aa.race.wait.WaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+// A Lock whose lock() never queues on the lock it wraps: it keeps calling tryLock, & lets the waitStrategy
+// decide what to do between two failed attempts. Everything else goes straight to the wrapped lock
+class TryLock implements Lock {
+
+    private final Lock lock;
+    private final WaitStrategy waitStrategy;
+
+    TryLock(Lock lock, WaitStrategy waitStrategy) {
+        this.lock = lock;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public void lock() {
+        int attempt = 0;
+        while (!lock.tryLock())
+            waitStrategy.idle(attempt++);
+    }
+
+    public void lockInterruptibly() throws InterruptedException {
+        int attempt = 0;
+        while (!lock.tryLock()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    public boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        return lock.tryLock(time, unit);
+    }
+
+    public void unlock() {
+        lock.unlock();
+    }
+
+    public Condition newCondition() {
+        return lock.newCondition();
+    }
+}
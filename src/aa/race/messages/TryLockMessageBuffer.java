@@ -0,0 +1,26 @@
+package aa.race.messages;
+
+import aa.race.wait.WaitStrategy;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Message Buffer class
+ * Same as the ReentrantLockMessageBuffer, except that the lock is taken with tryLock in a loop,
+ * the waitStrategy deciding what a thread does between two failed attempts
+ */
+public class TryLockMessageBuffer extends LockingMessageBuffer {
+
+    // Constructor. initializes instance variables
+    public TryLockMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull, WaitStrategy waitStrategy) {
+        this(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull), waitStrategy);
+    }
+
+    public TryLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, WaitStrategy waitStrategy) {
+        this(maxMsgSize, overflowPolicy, new TryLock(InstrumentedLock.wrap("TryLockMessageBuffer lock", new ReentrantLock()), waitStrategy));
+    }
+
+    private TryLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, TryLock tryLock) {
+        super(maxMsgSize, overflowPolicy, tryLock, tryLock);
+    }
+}
@@ -0,0 +1,28 @@
+package aa.race.messages;
+
+import aa.race.wait.WaitStrategy;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Message Buffer class
+ * Same as the ReadWriteLockMessageBuffer, except that both locks are taken with tryLock in a loop,
+ * the waitStrategy deciding what a thread does between two failed attempts
+ */
+public class TryLockReadWriteLockMessageBuffer extends LockingMessageBuffer {
+
+    // Constructor. initializes instance variables
+    public TryLockReadWriteLockMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull, WaitStrategy waitStrategy) {
+        this(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull), waitStrategy);
+    }
+
+    public TryLockReadWriteLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, WaitStrategy waitStrategy) {
+        this(maxMsgSize, overflowPolicy, new ReentrantReadWriteLock(), waitStrategy);
+    }
+
+    private TryLockReadWriteLockMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy, ReadWriteLock readWriteLock, WaitStrategy waitStrategy) {
+        super(maxMsgSize, overflowPolicy, new TryLock(InstrumentedLock.wrap("TryLockReadWriteLockMessageBuffer read lock", readWriteLock.readLock()), waitStrategy),
+                new TryLock(InstrumentedLock.wrap("TryLockReadWriteLockMessageBuffer write lock", readWriteLock.writeLock()), waitStrategy));
+    }
+}
@@ -0,0 +1,19 @@
+package aa.race.messages;
+
+/*
+ * Message Buffer class
+ * No locking at all, like the buffer of the original assignment: the baseline the other buffers race against.
+ * With more than one thread using it, messages get lost, duplicated or mangled & the buffer can even throw.
+ * It cannot wait either: the block overflow policy drops straight away & long polls return straight away
+ */
+public class UnsynchronizedMessageBuffer extends LockingMessageBuffer {
+
+    // Constructor. initializes instance variables
+    public UnsynchronizedMessageBuffer(int maxMsgSize, boolean dropNewCharWhenBufferFull) {
+        this(maxMsgSize, overflowPolicyFor(dropNewCharWhenBufferFull));
+    }
+
+    public UnsynchronizedMessageBuffer(int maxMsgSize, OverflowPolicy overflowPolicy) {
+        super(maxMsgSize, overflowPolicy, NoLock.INSTANCE, NoLock.INSTANCE);
+    }
+}
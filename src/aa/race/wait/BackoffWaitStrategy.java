@@ -0,0 +1,31 @@
+package aa.race.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Spins for a number of attempts, then parks for a pause that doubles with every further attempt, from minNanos up to maxNanos
+public class BackoffWaitStrategy implements WaitStrategy {
+
+    public static final int DEFAULT_SPINS = 10;
+    public static final long DEFAULT_MIN_NANOS = 1000;
+
+    private final int spins;       // number of attempts spent spinning before backing off
+    private final long minNanos;   // first pause
+    private final long maxNanos;   // longest pause
+
+    public BackoffWaitStrategy(int spins, long minNanos, long maxNanos) {
+        this.spins = spins;
+        this.minNanos = minNanos;
+        this.maxNanos = Math.max(minNanos, maxNanos);
+    }
+
+    public void idle(int attempt) {
+        if (attempt < spins) {
+            Thread.onSpinWait();
+            return;
+        }
+        int doublings = attempt - spins;
+        // past this many doublings minNanos would overflow, & is long past maxNanos anyway
+        boolean capped = doublings >= Long.numberOfLeadingZeros(minNanos) - 1;
+        LockSupport.parkNanos(capped ? maxNanos : Math.min(minNanos << doublings, maxNanos));
+    }
+}
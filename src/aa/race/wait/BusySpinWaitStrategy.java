@@ -0,0 +1,10 @@
+package aa.race.wait;
+
+// Keeps the core busy, but tells the CPU it is spinning (Thread.onSpinWait) so a hyper-threaded sibling,
+// possibly the lock holder, is not starved. Lowest latency, highest CPU use
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    public void idle(int attempt) {
+        Thread.onSpinWait();
+    }
+}
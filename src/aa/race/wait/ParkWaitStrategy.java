@@ -0,0 +1,17 @@
+package aa.race.wait;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Parks for the same fixed pause after every failed attempt. Uses hardly any CPU, but reacts at best every parkNanos
+public class ParkWaitStrategy implements WaitStrategy {
+
+    private final long parkNanos;  // pause after each failed attempt
+
+    public ParkWaitStrategy(long parkNanos) {
+        this.parkNanos = parkNanos;
+    }
+
+    public void idle(int attempt) {
+        LockSupport.parkNanos(parkNanos);
+    }
+}
@@ -0,0 +1,20 @@
+package aa.race.wait;
+
+// Spins for a number of attempts, then gives the core away with Thread.yield() on every further attempt
+public class SpinThenYieldWaitStrategy implements WaitStrategy {
+
+    public static final int DEFAULT_SPINS = 100;
+
+    private final int spins;  // number of attempts spent spinning before yielding
+
+    public SpinThenYieldWaitStrategy(int spins) {
+        this.spins = spins;
+    }
+
+    public void idle(int attempt) {
+        if (attempt < spins)
+            Thread.onSpinWait();
+        else
+            Thread.yield();
+    }
+}
@@ -0,0 +1,27 @@
+package aa.race.wait;
+
+/*
+ * Wait strategy
+ * decides what a thread does between two failed attempts at something, e.g. a tryLock that did not get the lock.
+ * Lets a deployment trade CPU for latency on purpose: spinning reacts fastest but keeps a core busy,
+ * parking frees the core but takes longer to notice that the lock is free again.
+ */
+public interface WaitStrategy {
+
+    // Called after each failed attempt. attempt is the number of failed attempts so far for the same operation, starting at 0
+    void idle(int attempt);
+
+    // Returns the strategy called name (busySpin, spinThenYield, backoff or park).
+    // nanos is the longest single pause for backoff & the pause for park; it is ignored by the others
+    static WaitStrategy named(String name, long nanos) {
+        if (name.equalsIgnoreCase("busySpin"))
+            return new BusySpinWaitStrategy();
+        if (name.equalsIgnoreCase("spinThenYield"))
+            return new SpinThenYieldWaitStrategy(SpinThenYieldWaitStrategy.DEFAULT_SPINS);
+        if (name.equalsIgnoreCase("backoff"))
+            return new BackoffWaitStrategy(BackoffWaitStrategy.DEFAULT_SPINS, BackoffWaitStrategy.DEFAULT_MIN_NANOS, nanos);
+        if (name.equalsIgnoreCase("park"))
+            return new ParkWaitStrategy(nanos);
+        throw new IllegalArgumentException("unknown wait strategy: " + name + " (must be busySpin, spinThenYield, backoff or park)");
+    }
+}